@@ -0,0 +1,76 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import fr.inserm.u1078.tludwig.privas.constants.Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+/**
+ * Throughput of the first iteration of WSS (ceil(100/rejectionPValue + 1) permutations for each gene) :
+ * tiles of (genes x permutations) versus one pass over the permutations for each gene
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class FirstPassBenchmark {
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  @Param({"200"})
+  public int nbGenes;
+  @Param({"8"})
+  public int meanVariants;
+  @Param({"0.05"})
+  public double maxFrequency;
+  @Param({"true", "false"})
+  public boolean tiled;
+
+  private SyntheticCohort cohort;
+  private ArrayList<WSS> wss;
+  private int firstCheck;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    cohort = new SyntheticCohort(nbSamples / 3, nbSamples - nbSamples / 3, nbGenes, meanVariants, maxFrequency, 1138L);
+    firstCheck = (int) Math.ceil(Parameters.WSS_DEFAULT_LOOP_SIZE / Parameters.WSS_DEFAULT_REJECTION_PVALUE + 1);
+  }
+
+  /**
+   * The permutations counts are stored in the WSS instances : new instances are needed for each invocation
+   */
+  @Setup(Level.Invocation)
+  public void reset() {
+    wss = cohort.buildWSS();
+  }
+
+  @Benchmark
+  public String firstPass() {
+    StringWriter results = new StringWriter();
+    //maxK = first iteration : every gene stops after the first pass
+    WSSScheduler scheduler = new WSSScheduler(wss, Runtime.getRuntime().availableProcessors(),
+        Parameters.WSS_DEFAULT_MIN_K0, firstCheck, Parameters.WSS_DEFAULT_REJECTION_PVALUE, Parameters.WSS_DEFAULT_MIN_PVALUE_MINUS_LOG,
+        firstCheck, cohort.getNbUnaffected(), cohort.getNbAffected(), 1138L, new PrintWriter(results), System.currentTimeMillis());
+    scheduler.setTiledFirstPass(tiled);
+    scheduler.run((permutations, left) -> {
+    });
+    return results.toString();
+  }
+}
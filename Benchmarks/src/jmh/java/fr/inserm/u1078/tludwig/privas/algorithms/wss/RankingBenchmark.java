@@ -0,0 +1,70 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Throughput of the computation of the ranksum of the affected samples : RankedGammaList (reference) versus RankKernel.
+ * Most samples carry no variant, so the gammas contain many ex aequo
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RankingBenchmark {
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  /**
+   * fraction of the samples with a non-null genetic score
+   */
+  @Param({"0.05", "0.5"})
+  public double carrierFraction;
+
+  private double[] gammas;
+  private boolean[] phenotypes;
+  private long[] affected;
+
+  @Setup
+  public void generate() {
+    Random random = new Random(1138L);
+    gammas = new double[nbSamples];
+    phenotypes = new boolean[nbSamples];
+    for (int i = 0; i < nbSamples; i++) {
+      if (random.nextDouble() < carrierFraction)
+        gammas[i] = (1 + random.nextInt(20)) / 7.0;
+      phenotypes[i] = i < nbSamples / 3;
+    }
+    affected = PackedGenotypes.toBits(phenotypes);
+  }
+
+  @Benchmark
+  public double rankedGammaList() {
+    RankedGammaList list = new RankedGammaList();
+    for (int i = 0; i < nbSamples; i++)
+      list.add(gammas[i], phenotypes[i]);
+    return list.getRanking();
+  }
+
+  @Benchmark
+  public double rankKernel() {
+    RankKernel kernel = RankKernel.get();
+    System.arraycopy(gammas, 0, kernel.getGammas(nbSamples), 0, nbSamples);
+    return kernel.getRanking(nbSamples, affected);
+  }
+}
@@ -0,0 +1,57 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the generation of a permutation of the phenotypes : sequential Shuffler versus counter-based PermutationStream
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ShufflerBenchmark {
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  @Param({"0.1", "0.5"})
+  public double affectedRatio;
+
+  private Shuffler shuffler;
+  private PermutationStream stream;
+  private long[] shuffled;
+  private long k = 0;
+
+  @Setup
+  public void init() {
+    int nbAffected = (int) (nbSamples * affectedRatio);
+    shuffler = new Shuffler(nbSamples - nbAffected, nbAffected, 1138L);
+    stream = new PermutationStream(nbSamples - nbAffected, nbAffected, 1138L);
+    shuffled = new long[stream.getNbWords()];
+  }
+
+  @Benchmark
+  public long[] shuffler() {
+    shuffler.getNext(shuffled);
+    return shuffled;
+  }
+
+  @Benchmark
+  public long[] permutationStream() {
+    stream.get(k++, shuffled);
+    return shuffled;
+  }
+}
@@ -0,0 +1,157 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import fr.inserm.u1078.tludwig.privas.instances.CommandLineInstance;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic cohort used by the benchmarks <br/>
+ * The first nbAffected samples are affected, the others are unaffected (as in the merged data of the TPS).
+ * The number of variants per gene follows an exponential distribution (most genes are small, a few genes are large),
+ * or is fixed (singleGene()).
+ * The allele frequencies follow the spectrum maxFrequency * u^spectrum, with u uniform in [0;1[ : the higher the spectrum, the rarer the variants.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class SyntheticCohort {
+  private final int nbAffected;
+  private final int nbUnaffected;
+  private final boolean[] phenotypes;
+  /**
+   * genotypes lines of each gene, in the format expected by WSS
+   */
+  private final HashMap<String, ArrayList<String>> genes;
+  private final Instance instance;
+
+  /**
+   * default allele frequency spectrum, skewed toward rare variants
+   */
+  public static final double DEFAULT_SPECTRUM = 3;
+
+  /**
+   * Generates a new SyntheticCohort, with the default allele frequency spectrum
+   *
+   * @param nbAffected    number of affected samples
+   * @param nbUnaffected  number of unaffected samples
+   * @param nbGenes       number of genes
+   * @param meanVariants  mean number of variants per gene
+   * @param maxFrequency  maximum allele frequency of a variant
+   * @param seed          random seed
+   */
+  public SyntheticCohort(int nbAffected, int nbUnaffected, int nbGenes, int meanVariants, double maxFrequency, long seed) {
+    this(nbAffected, nbUnaffected, nbGenes, meanVariants, false, maxFrequency, DEFAULT_SPECTRUM, seed);
+  }
+
+  /**
+   * Generates a new SyntheticCohort
+   *
+   * @param nbAffected    number of affected samples
+   * @param nbUnaffected  number of unaffected samples
+   * @param nbGenes       number of genes
+   * @param meanVariants  mean number of variants per gene
+   * @param maxFrequency  maximum allele frequency of a variant
+   * @param spectrum      exponent of the allele frequency spectrum
+   * @param seed          random seed
+   */
+  public SyntheticCohort(int nbAffected, int nbUnaffected, int nbGenes, int meanVariants, double maxFrequency, double spectrum, long seed) {
+    this(nbAffected, nbUnaffected, nbGenes, meanVariants, false, maxFrequency, spectrum, seed);
+  }
+
+  /**
+   * Generates a SyntheticCohort with a single gene of nbVariants variants
+   *
+   * @param nbAffected    number of affected samples
+   * @param nbUnaffected  number of unaffected samples
+   * @param nbVariants    number of variants of the gene
+   * @param maxFrequency  maximum allele frequency of a variant
+   * @param spectrum      exponent of the allele frequency spectrum
+   * @param seed          random seed
+   * @return the new SyntheticCohort
+   */
+  public static SyntheticCohort singleGene(int nbAffected, int nbUnaffected, int nbVariants, double maxFrequency, double spectrum, long seed) {
+    return new SyntheticCohort(nbAffected, nbUnaffected, 1, nbVariants, true, maxFrequency, spectrum, seed);
+  }
+
+  private SyntheticCohort(int nbAffected, int nbUnaffected, int nbGenes, int meanVariants, boolean fixedSize, double maxFrequency, double spectrum, long seed) {
+    this.nbAffected = nbAffected;
+    this.nbUnaffected = nbUnaffected;
+    this.phenotypes = new boolean[nbAffected + nbUnaffected];
+    for (int i = 0; i < nbAffected; i++)
+      this.phenotypes[i] = true;
+    this.instance = new CommandLineInstance();
+    this.genes = new HashMap<>();
+    Random random = new Random(seed);
+    for (int g = 0; g < nbGenes; g++) {
+      int nbVariants = fixedSize ? meanVariants : 1 + (int) (-meanVariants * Math.log(1 - random.nextDouble()));
+      ArrayList<String> lines = new ArrayList<>();
+      for (int v = 0; v < nbVariants; v++)
+        lines.add(generateVariant(random, maxFrequency, spectrum));
+      this.genes.put("GENE_" + g, lines);
+    }
+  }
+
+  /**
+   * Generates the genotypes of a variant
+   *
+   * @param random       the random number generator
+   * @param maxFrequency maximum allele frequency
+   * @param spectrum     exponent of the allele frequency spectrum
+   * @return the genotypes line (one column per sample)
+   */
+  private String generateVariant(Random random, double maxFrequency, double spectrum) {
+    double frequency = maxFrequency * Math.pow(random.nextDouble(), spectrum);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < phenotypes.length; i++) {
+      int genotype = 0;
+      if (random.nextDouble() < frequency)
+        genotype++;
+      if (random.nextDouble() < frequency)
+        genotype++;
+      if (i > 0)
+        sb.append('\t');
+      sb.append(genotype);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builds new WSS instances for all the genes, with their ranksum computed
+   *
+   * @return a list of WSS ready for the permutations
+   */
+  public ArrayList<WSS> buildWSS() {
+    ArrayList<WSS> wss = new ArrayList<>();
+    for (String gene : genes.keySet()) {
+      WSS w = new WSS(gene, phenotypes, genes.get(gene), instance);
+      w.start(phenotypes);
+      wss.add(w);
+    }
+    return wss;
+  }
+
+  public int getNbAffected() {
+    return nbAffected;
+  }
+
+  public int getNbUnaffected() {
+    return nbUnaffected;
+  }
+
+  public boolean[] getPhenotypes() {
+    return phenotypes;
+  }
+
+  public HashMap<String, ArrayList<String>> getGenes() {
+    return genes;
+  }
+
+  public Instance getInstance() {
+    return instance;
+  }
+}
@@ -0,0 +1,57 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration of a complete WSSHandler.run(), on a synthetic cohort
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class WSSHandlerBenchmark {
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  @Param({"200"})
+  public int nbGenes;
+  @Param({"8"})
+  public int meanVariants;
+  @Param({"0.05"})
+  public double maxFrequency;
+  @Param({"3"})
+  public double spectrum;
+  @Param({"10000"})
+  public long maxPermutations;
+
+  private SyntheticCohort cohort;
+
+  @Setup
+  public void generate() {
+    cohort = new SyntheticCohort(nbSamples / 3, nbSamples - nbSamples / 3, nbGenes, meanVariants, maxFrequency, spectrum, 1138L);
+  }
+
+  @Benchmark
+  public byte[] run() {
+    WSSHandler handler = new WSSHandler(maxPermutations, Runtime.getRuntime().availableProcessors(), 1138L, cohort.getInstance());
+    return handler.start(cohort.getGenes(), cohort.getNbAffected(), cohort.getNbUnaffected());
+  }
+}
@@ -0,0 +1,146 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Throughput of WSS.xOptimizedNoMissing (through countPermutations), on a single gene of a synthetic cohort.
+ * The permutations are generated beforehand, so that only the genetic scores and the ranking are measured <br/>
+ * Before measuring, the setup checks that xOptimizedNoMissing (RankKernel) gives the same rank sums as the ranking of xOriginal (RankedGammaList),
+ * on random cohorts with many ex aequo (rare variants).
+ * The gammas given to RankedGammaList are computed with the weights of xOptimizedNoMissing (q = factor * mu) : xOriginal computes q = (mu + 1) / (2 * nu + 2),
+ * that can differ on the last bit, and split or merge ex aequo (this was already the case before RankKernel)
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class XOptimizedBenchmark {
+  /**
+   * number of permutations processed by each invocation
+   */
+  private static final int PERMUTATIONS = 100;
+  /**
+   * number of random cohorts for the equivalence check, each with 3 genes
+   */
+  private static final int CHECK_COHORTS = 100;
+  /**
+   * number of permutations of each gene for the equivalence check
+   */
+  private static final int CHECK_PERMUTATIONS = 20;
+
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  @Param({"5", "50"})
+  public int nbVariants;
+  @Param({"0.01", "0.2"})
+  public double maxFrequency;
+  @Param({"3"})
+  public double spectrum;
+
+  private WSS wss;
+  private long[][] shuffled;
+
+  @Setup
+  public void generate() {
+    checkRanking();
+    SyntheticCohort cohort = SyntheticCohort.singleGene(nbSamples / 3, nbSamples - nbSamples / 3, nbVariants, maxFrequency, spectrum, 1138L);
+    ArrayList<WSS> list = cohort.buildWSS();
+    wss = list.get(0);
+    PermutationStream stream = new PermutationStream(cohort.getNbUnaffected(), cohort.getNbAffected(), 1138L);
+    shuffled = new long[PERMUTATIONS][stream.getNbWords()];
+    for (int k = 0; k < PERMUTATIONS; k++)
+      stream.get(k, shuffled[k]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PERMUTATIONS)
+  public int xOptimizedNoMissing() {
+    return wss.countPermutations(shuffled, PERMUTATIONS);
+  }
+
+  /**
+   * Checks that xOptimizedNoMissing gives the same rank sums as the reference, on random cohorts and permutations
+   *
+   * @throws IllegalStateException if a rank sum differs
+   */
+  private static void checkRanking() {
+    Random random = new Random(1138L);
+    for (int c = 0; c < CHECK_COHORTS; c++) {
+      int nbSamples = 20 + random.nextInt(300);
+      int nbAffected = 1 + random.nextInt(nbSamples - 1);
+      double maxFrequency = random.nextBoolean() ? 0.01 : 0.3;
+      SyntheticCohort cohort = new SyntheticCohort(nbAffected, nbSamples - nbAffected, 3, 1 + random.nextInt(10), maxFrequency, 1 + 3 * random.nextDouble(), random.nextLong());
+      PermutationStream stream = new PermutationStream(cohort.getNbUnaffected(), cohort.getNbAffected(), random.nextLong());
+      long[] shuffled = new long[stream.getNbWords()];
+      boolean[] phenotypes = new boolean[nbSamples];
+      for (String gene : cohort.getGenes().keySet()) {
+        ArrayList<String> lines = cohort.getGenes().get(gene);
+        int[][] genotypes = new int[lines.size()][nbSamples];
+        for (int v = 0; v < genotypes.length; v++) {
+          String[] f = lines.get(v).split("\\t");
+          for (int i = 0; i < nbSamples; i++)
+            genotypes[v][i] = Integer.parseInt(f[i]);
+        }
+        WSS wss = new WSS(gene, cohort.getPhenotypes(), lines, cohort.getInstance());
+        for (int k = 0; k < CHECK_PERMUTATIONS; k++) {
+          stream.get(k, shuffled);
+          for (int i = 0; i < nbSamples; i++)
+            phenotypes[i] = (shuffled[i >>> 6] & (1L << i)) != 0;
+          double optimized = wss.start(phenotypes);
+          double reference = reference(phenotypes, genotypes, cohort.getNbUnaffected());
+          if (optimized != reference)
+            throw new IllegalStateException("Rank sums differ for cohort " + c + ", " + gene + ", permutation " + k + " : xOptimizedNoMissing = " + optimized + ", reference = " + reference);
+        }
+      }
+    }
+  }
+
+  /**
+   * Rank sum of the affected individuals computed as in xOriginal (RankedGammaList), with the weights of xOptimizedNoMissing
+   *
+   * @param phenotypes   phenotypes of the samples (true when affected)
+   * @param genotypes    genotypes of each variant, without missing values
+   * @param nbUnaffected number of unaffected individuals
+   * @return the rank sum of the affected individuals
+   */
+  private static double reference(boolean[] phenotypes, int[][] genotypes, int nbUnaffected) {
+    final double factor = 0.5 / (nbUnaffected + 1);
+    final int N = phenotypes.length;
+    final double[] w = new double[genotypes.length];
+    for (int v = 0; v < genotypes.length; v++) {
+      int mu = 1;
+      for (int i = 0; i < N; i++)
+        if (!phenotypes[i])
+          mu += genotypes[v][i];
+      double q = factor * mu;
+      w[v] = Math.sqrt(N * q * (1 - q));
+    }
+    RankedGammaList gammaList = new RankedGammaList();
+    for (int i = 0; i < N; i++) {
+      double gamma = 0.0;
+      for (int v = 0; v < genotypes.length; v++)
+        gamma += genotypes[v][i] / w[v];
+      gammaList.add(gamma, phenotypes[i]);
+    }
+    return gammaList.getRanking();
+  }
+}
@@ -0,0 +1,69 @@
+package fr.inserm.u1078.tludwig.privas.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Throughput of FisherExactTest.twoTailed, on the tables built by the TPS when merging variants (genotyped/missing x cases/controls)
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FisherExactTestBenchmark {
+  /**
+   * number of tables tested by each invocation
+   */
+  private static final int TABLES = 1000;
+
+  @Param({"1000", "5000"})
+  public int nbSamples;
+  /**
+   * maximum missing rate of a variant
+   */
+  @Param({"0.01", "0.2"})
+  public double maxMissing;
+
+  private FisherExactTest fet;
+  private int[][] tables;
+
+  @Setup
+  public void generate() {
+    fet = new FisherExactTest(nbSamples);
+    Random random = new Random(1138L);
+    int nbCases = nbSamples / 3;
+    int nbControls = nbSamples - nbCases;
+    tables = new int[TABLES][];
+    for (int t = 0; t < TABLES; t++) {
+      int missingCases = random.nextInt(1 + (int) (maxMissing * nbCases));
+      int missingControls = random.nextInt(1 + (int) (maxMissing * nbControls));
+      tables[t] = new int[]{nbCases - missingCases, missingCases, nbControls - missingControls, missingControls};
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TABLES)
+  public double twoTailed() {
+    double sum = 0;
+    for (int[] t : tables)
+      sum += fet.twoTailed(t[0], t[1], t[2], t[3]);
+    return sum;
+  }
+}
@@ -0,0 +1,113 @@
+package fr.inserm.u1078.tludwig.privas.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shuffling of the lines kept by GenotypesFileHandler.extractGenotypes : insertion of each line at a random position (previous version)
+ * versus buffering the lines and a single Fisher-Yates shuffle (current version) <br/>
+ * Before measuring, the setup checks that both methods produce uniformly distributed permutations
+ * (chi-square test on all the permutations of 5 lines), so that they hide the order of the lines equally well.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ShuffledExtractionBenchmark {
+  /**
+   * Number of lines for the uniformity check (5! = 120 permutations)
+   */
+  private static final int CHECK_LINES = 5;
+  private static final int CHECK_TRIALS = 120000;
+  /**
+   * Chi-square critical value for 119 degrees of freedom, at p = 0.001
+   */
+  private static final double CHI2_CRITICAL = 173.6;
+
+  @Param({"10000", "100000", "400000"})
+  public int nbLines;
+
+  private List<String> lines;
+
+  @Setup
+  public void init() {
+    double insertion = chiSquare(true);
+    double fisherYates = chiSquare(false);
+    if (insertion > CHI2_CRITICAL || fisherYates > CHI2_CRITICAL)
+      throw new IllegalStateException("Non uniform permutations : chi2(insertion) = " + insertion + ", chi2(Fisher-Yates) = " + fisherYates);
+    lines = new ArrayList<>(nbLines);
+    for (int i = 0; i < nbLines; i++)
+      lines.add("hash" + i);
+  }
+
+  @Benchmark
+  public List<String> insertAtRandomPosition() {
+    return insertAtRandomPosition(lines, new Random(681074832L));
+  }
+
+  @Benchmark
+  public List<String> fisherYates() {
+    return fisherYates(lines, new Random(681074832L));
+  }
+
+  private static <E> List<E> insertAtRandomPosition(List<E> lines, Random random) {
+    ArrayList<E> output = new ArrayList<>();
+    for (E line : lines)
+      output.add(random.nextInt(output.size() + 1), line);
+    return output;
+  }
+
+  private static <E> List<E> fisherYates(List<E> lines, Random random) {
+    ArrayList<E> output = new ArrayList<>(lines.size());
+    output.addAll(lines);
+    Collections.shuffle(output, random);
+    return output;
+  }
+
+  /**
+   * Chi-square statistic of the distribution of the permutations of CHECK_LINES lines
+   *
+   * @param insertion true for the insertion at random positions, false for the Fisher-Yates shuffle
+   * @return the chi-square statistic
+   */
+  private static double chiSquare(boolean insertion) {
+    List<Integer> check = new ArrayList<>();
+    for (int i = 0; i < CHECK_LINES; i++)
+      check.add(i);
+    Random random = new Random(1138L);
+    HashMap<List<Integer>, Integer> counts = new HashMap<>();
+    for (int t = 0; t < CHECK_TRIALS; t++)
+      counts.merge(insertion ? insertAtRandomPosition(check, random) : fisherYates(check, random), 1, Integer::sum);
+    int permutations = 1;
+    for (int i = 2; i <= CHECK_LINES; i++)
+      permutations *= i;
+    double expected = CHECK_TRIALS / (double) permutations;
+    double chi2 = (permutations - counts.size()) * expected;
+    for (int count : counts.values())
+      chi2 += (count - expected) * (count - expected) / expected;
+    return chi2;
+  }
+}
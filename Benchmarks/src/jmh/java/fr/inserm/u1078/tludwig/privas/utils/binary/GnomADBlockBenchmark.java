@@ -0,0 +1,211 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.instances.CommandLineInstance;
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+import fr.inserm.u1078.tludwig.privas.utils.ExtractAnnotations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Decoding throughput of binary GnomAD files : <br/>
+ * - full decoding of a block of lines, with the previous decoder (one byte[] and ByteBuffer per field), the buffered decoder (BinaryFileReader) and the memory-mapped decoder <br/>
+ * - random lookups through GnomADIndexReader (each lookup loads a new block)
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GnomADBlockBenchmark {
+  /**
+   * number of random lookups for each invocation
+   */
+  private static final int QUERIES = 1000;
+
+  /**
+   * number of lines in each block (as in the index)
+   */
+  @Param({"512"})
+  public int blockSize;
+  /**
+   * number of lines in the file
+   */
+  @Param({"200000"})
+  public int nbLines;
+
+  private File file;
+  private long firstLine;
+  private GnomADIndexReader index;
+  private GnomADMappedFileReader mapped;
+  private CanonicalVariant[] queries;
+
+  @Setup
+  public void generate() throws IOException {
+    file = File.createTempFile("gnomad", ".bin");
+    Random random = new Random(1138L);
+    ArrayList<CanonicalVariant> variants = new ArrayList<>();
+    String[] alts = {"-", "A", "CG", "ACGTTGCA"};
+    GnomADFileWriter out = new GnomADFileWriter(file.getAbsolutePath());
+    out.writeGnomADFileHeader(new GnomADFileHeader("benchmark", new String[]{"exome"}, new String[]{"genome"}, new Date()));
+    firstLine = out.getBytesWritten();
+    int pos = 1;
+    for (int i = 0; i < nbLines; i++) {
+      pos += 1 + random.nextInt(100);
+      double[] frequencies = new double[12];
+      for (int f = 0; f < 12; f++)
+        if (f == 0 || random.nextInt(3) == 0)
+          frequencies[f] = (1 + random.nextInt(100000)) / 1e6;
+      CanonicalVariant variant = new CanonicalVariant(1, pos, 1 + random.nextInt(3), alts[random.nextInt(alts.length)]);
+      variants.add(variant);
+      out.writeGnomADLine(new GnomADLine(variant, frequencies));
+    }
+    out.writeGnomADLine(GnomADLine.NULL); //exome
+    out.writeGnomADLine(GnomADLine.NULL); //genome
+    out.close();
+
+    CommandLineInstance log = new CommandLineInstance();
+    ExtractAnnotations.buildIndex(file.getAbsolutePath(), blockSize, log);
+    index = new GnomADIndexReader(file.getAbsolutePath(), log);
+    mapped = new GnomADMappedFileReader(file.getAbsolutePath());
+    queries = new CanonicalVariant[QUERIES];
+    for (int q = 0; q < QUERIES; q++)
+      queries[q] = variants.get(random.nextInt(variants.size()));
+  }
+
+  @TearDown
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  public void delete() {
+    file.delete();
+    new File(file.getAbsolutePath() + ".idx").delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public int fetchRandom() throws IOException {
+    int found = 0;
+    for (CanonicalVariant query : queries)
+      if (index.fetch(query)[0] != null)
+        found++;
+    return found;
+  }
+
+  @Benchmark
+  public double decodeBlockLegacy() throws IOException {
+    LegacyReader in = new LegacyReader(file.getAbsolutePath(), firstLine);
+    double sum = 0;
+    for (int i = 0; i < blockSize; i++)
+      sum += in.readGnomADLine().getFrequencies()[0];
+    in.close();
+    return sum;
+  }
+
+  @Benchmark
+  public double decodeBlockBuffered() throws IOException {
+    GnomADFileReader in = new GnomADFileReader(file.getAbsolutePath(), firstLine);
+    double sum = 0;
+    for (int i = 0; i < blockSize; i++)
+      sum += in.readGnomADLine().getFrequencies()[0];
+    in.close();
+    return sum;
+  }
+
+  @Benchmark
+  public double decodeBlockMapped() throws IOException {
+    mapped.seek(firstLine);
+    double sum = 0;
+    for (int i = 0; i < blockSize; i++)
+      sum += mapped.readGnomADLine().getFrequencies()[0];
+    return sum;
+  }
+
+  /**
+   * The previous decoder, kept as a reference : each field is read in a new byte[], and decoded with ByteBuffer.wrap
+   */
+  private static class LegacyReader {
+    private final BufferedInputStream in;
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    LegacyReader(String filename, long offset) throws IOException {
+      in = new BufferedInputStream(new FileInputStream(filename));
+      in.skip(offset);
+    }
+
+    private byte[] read(int length) throws IOException {
+      byte[] bytes = new byte[length];
+      if (in.read(bytes) == -1)
+        throw new IOException("EOF");
+      return bytes;
+    }
+
+    private int readInt1() throws IOException {
+      return read(1)[0] & 0xFF;
+    }
+
+    private int readInt1or2() throws IOException {
+      int small = readInt1();
+      if (small < 128)
+        return small;
+      return small + 128 * (readInt1() - 1);
+    }
+
+    private int readInt4() throws IOException {
+      return ByteBuffer.wrap(read(4)).getInt();
+    }
+
+    private String readSequence() throws IOException {
+      int len = readInt1or2();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < len; i += 4) {
+        int val = readInt1();
+        sb.append(GnomADLine.ACGT[val & 3]).append(GnomADLine.ACGT[(val & 12) / 4]).append(GnomADLine.ACGT[(val & 48) / 16]).append(GnomADLine.ACGT[(val & 192) / 64]);
+      }
+      return sb.substring(0, len);
+    }
+
+    GnomADLine readGnomADLine() throws IOException {
+      int chrom = readInt1();
+      int pos = readInt4();
+      int flag = readInt1();
+      int length = GnomADLine.isLength1(flag) ? 1 : readInt1or2();
+      String alt = GnomADLine.getSeq(flag);
+      if (alt.isEmpty())
+        alt = readSequence();
+      double[] frequencies = new double[12];
+      if (!GnomADLine.isNullFrequencies(flag)) {
+        int f = readInt1or2();
+        for (int i = 0; i < 12; i++)
+          if ((f & GnomADFileReader.FLAGS[i]) == GnomADFileReader.FLAGS[i])
+            frequencies[i] = BinaryFileReader.decodeDouble0to1(read(3));
+      }
+      return new GnomADLine(new CanonicalVariant(chrom, pos, length, alt), frequencies);
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+}
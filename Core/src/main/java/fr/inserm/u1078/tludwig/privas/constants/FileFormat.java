@@ -78,6 +78,10 @@ public class FileFormat {
    * Extension for Genotypes Size files
    */
   public static final String FILE_GENO_SIZE_EXTENSION = "size";
+  /**
+   * Extension for Genotypes Stores (binary version of the Genotypes files)
+   */
+  public static final String FILE_GENO_STORE_EXTENSION = "store";
   /**
    * Extension when receiving the results, writes the encrypted content in a file with this extension
    */
@@ -283,6 +287,7 @@ public class FileFormat {
   public static final String TAG_EXOME_SIZE = "exome_size";
   public static final String TAG_GENOME_SIZE = "genome_size";
   public static final String TAG_BUFFER_SIZE = "buffer_size";
+  public static final String TAG_FORMAT = "format";
 
   public static final String FILE_DOC_EXTENSION = "rst";
   public static final String FILE_CLIENT_DOC = "Client."+FILE_DOC_EXTENSION;
@@ -463,6 +463,10 @@ public class MSG {
   public static final String EXT_DURATION_GENOME = "Genome Data Extracted in ";
   public static final String EXT_DURATION_INDEX = "Index Created in ";
   public static final String EXT_HEADER = "Header:";
+  public static final String EXT_BLOCKS_NEED_INDEX = "The index must be enabled to write a GnomAD File in the block format";
+  public static final String EXT_NO_REBUILD = "The index of a GnomAD File in the block format cannot be rebuilt, it is written with the file";
+  public static final String GNOMAD_CORRUPTED_BLOCK = "Corrupted block in GnomAD File";
+  public static final String EXT_NO_INDEX = "The index was not built while writing the exome and genome sections of the GnomAD File";
 
   public static String EXT_DURATION_EXOME(Date s, Date e){ return EXT_DURATION_EXOME+Constants.duration(s, e);}
   public static String EXT_DURATION_GENOME(Date s, Date e){ return EXT_DURATION_GENOME+Constants.duration(s, e);}
@@ -471,6 +475,17 @@ public class MSG {
 
   public static final String GNFH_CONVERTED_LINES = "Lines converted";
   public static final String GNFH_EXTRACTED_LINES = "Lines extracted";
+  public static final String GNFH_NOT_BGZF = "Not a BGZF block at offset";
+  public static final String GNFH_STORE_NOT_STORE = "Not a Genotypes Store";
+  public static final String GNFH_STORE_VERSION = "Unsupported version of Genotypes Store";
+  public static final String GNFH_STORE_CORRUPTED = "Corrupted Genotypes Store";
+  public static final String GNFH_STORE_SAMPLES = "Unexpected number of samples for variant";
+  public static final String GNFH_STORE_VARIANT = "Unexpected variant";
+  public static final String GNFH_STORE_GENOTYPE = "Unexpected genotype";
+  public static final String GNFH_STORE_UNAVAILABLE = "Unable to use the Genotypes Store, the Genotype File will be parsed";
+  public static final String GNFH_STORE_REBUILD = "Unable to read the Genotypes Store, it will be rebuilt";
+  public static final String GNFH_STORE_OUTDATED = "The Genotypes Store was not built from the current Genotype File, it will be rebuilt";
+  public static final String GNFH_STORE_SKIPPED = "Blocks of the Genotypes Store skipped by the filters";
   public static String GNFH_READ_LINES(String filename, long read){ return cat("Lines read from "+filename, read);}
 
   //gui
@@ -71,6 +71,23 @@ public class Parameters {
    * By default WSS uses this value has a stop condition when comparing the current values of p-value and k0
    */
   public static final double WSS_DEFAULT_MIN_PVALUE_MINUS_LOG = 8;
+  /**
+   * Targeted duration in ms of a block of permutations scheduled for a gene (the size of the blocks is adapted to the measured cost of each gene)
+   */
+  public static final int WSS_BLOCK_TARGET_MS = 20;
+  /**
+   * Maximum number of permutations in a block
+   */
+  public static final int WSS_MAX_BLOCK_SIZE = 100000;
+  /**
+   * Delay in ms between two progress updates while the permutations are computed
+   */
+  public static final int WSS_PROGRESS_DELAY = 1000;
+
+  /**
+   * Estimated size in memory (in bytes) of the decoded GnomAD blocks kept by each GnomADAnnotationService
+   */
+  public static final long GNOMAD_CACHE_BYTES = 256L * 1024 * 1024;
 
   //Default RPP Server
   /**
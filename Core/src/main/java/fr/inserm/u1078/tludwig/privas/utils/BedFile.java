@@ -5,6 +5,7 @@ import fr.inserm.u1078.tludwig.privas.utils.BedRegion.BedRegionException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -13,9 +14,14 @@ import java.util.HashMap;
 public class BedFile implements Cloneable {
 
   private final HashMap<Integer, ArrayList<BedRegion>> regions;
+  /**
+   * For each chromosome, the largest end of the regions up to each index (regions may still overlap after an union), computed when needed
+   */
+  private final ConcurrentHashMap<Integer, int[]> maxEnds;
 
   public BedFile() {
     this.regions = new HashMap<>();
+    this.maxEnds = new ConcurrentHashMap<>();
   }
 
   public BedFile(String filename) throws IOException, BedRegionException {
@@ -61,6 +67,7 @@ public class BedFile implements Cloneable {
    * @param r the region to add
    */
   public void add(int chr, BedRegion r) {
+    this.maxEnds.remove(chr);
     ArrayList<BedRegion> chromosome = this.regions.computeIfAbsent(chr, k -> new ArrayList<>());
 
     //1) add region
@@ -183,6 +190,37 @@ public class BedFile implements Cloneable {
     return false;
   }
 
+  /**
+   * Tells if a range overlaps at least one region in the bed file
+   *
+   * @param chr the chromosome of the range to test
+   * @param start the start of the range to test (0-based)
+   * @param end the end of the range to test (1-based)
+   * @return true if at least one region from this BedFile starts before the end of the range and ends after its start
+   */
+  public boolean overlapsRange(int chr, int start, int end) {
+    ArrayList<BedRegion> chromosome = this.regions.get(chr);
+    if (chromosome == null || chromosome.isEmpty())
+      return false;
+    int[] ends = this.maxEnds.computeIfAbsent(chr, k -> {
+      int[] max = new int[chromosome.size()];
+      for (int i = 0; i < max.length; i++)
+        max[i] = Math.max(chromosome.get(i).getEnd(), i == 0 ? Integer.MIN_VALUE : max[i - 1]);
+      return max;
+    });
+    //Get the last region with start before this end
+    int f = -1;
+    int l = chromosome.size();
+    while (l - f > 1) {
+      int c = (f + l) / 2;
+      if (chromosome.get(c).getStart() < end)
+        f = c;
+      else
+        l = c;
+    }
+    return f >= 0 && ends[f] > start;
+  }
+
   /*
   public void print(){
     for(int chr : this.regions.keySet())
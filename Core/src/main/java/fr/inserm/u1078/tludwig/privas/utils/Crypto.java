@@ -3,10 +3,14 @@ package fr.inserm.u1078.tludwig.privas.utils;
 import fr.inserm.u1078.tludwig.privas.constants.MSG;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -23,8 +27,10 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
@@ -51,7 +57,7 @@ public final class Crypto {
   private static final String RSA_CIPHER = "RSA/ECB/PKCS1Padding";
   private static final String N = "\n";
   private static final String NOTHING = "";
-  private static final String BYTE_FORMAT = "%02X";
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
   private static final int RSA_BITS = 2048;
   private static final int SHA_BITS = 256;
   private static final int AES_BITS = 128; //256 is not supported by license
@@ -158,6 +164,82 @@ public final class Crypto {
     }
   }
 
+  /**
+   * Decrypts an AES encrypted message, read from a stream, without loading the encoded message in a String
+   * The stream must contain the message as produced by encryptAES() (only the first line is read)
+   *
+   * @param key              the AES key
+   * @param encryptedMessage the stream containing the encrypted message
+   * @return a BufferedReader over the decrypted message
+   * @throws IOException     If an I/O error occurs while reading the stream
+   * @throws CryptoException If the message could not be decrypted
+   */
+  public static BufferedReader decryptAES(String key, InputStream encryptedMessage) throws IOException, CryptoException {
+    //Convert String to AES SecretKey
+    SecretKey secretKey = new SecretKeySpec(Base64.getDecoder().decode(key), AES);
+
+    //Decode the stream on the fly
+    DataInputStream decoded = new DataInputStream(Base64.getDecoder().wrap(new FirstLineInputStream(encryptedMessage)));
+
+    //Recover the Initialization Vector
+    int ivLength = decoded.readInt();
+    if (ivLength < 12 || ivLength >= 16) // check input parameter
+      throw new IllegalArgumentException("invalid iv length");
+    byte[] iv = new byte[ivLength];
+    decoded.readFully(iv);
+
+    try {
+      //Create a Cipher and init to parameters
+      final Cipher cipher = Cipher.getInstance(AES_CIPHER);
+      cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(AES_BITS, iv));
+
+      //Decrypt the rest of the stream
+      return new BufferedReader(new InputStreamReader(new CipherInputStream(decoded, cipher), StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException | InvalidKeyException e) {
+      throw new CryptoException("Could not decrypt message", e);
+    }
+  }
+
+  /**
+   * Stream that ends at the end of the first line of the underlying stream
+   */
+  private static class FirstLineInputStream extends FilterInputStream {
+    private boolean ended = false;
+
+    FirstLineInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (ended)
+        return -1;
+      int b = super.read();
+      if (b == '\n' || b == '\r' || b == -1) {
+        ended = true;
+        return -1;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (ended)
+        return -1;
+      int read = super.read(b, off, len);
+      if (read == -1) {
+        ended = true;
+        return -1;
+      }
+      for (int i = off; i < off + read; i++)
+        if (b[i] == '\n' || b[i] == '\r') {
+          ended = true;
+          return i == off ? -1 : i - off;
+        }
+      return read;
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////
   //////////////////////////////////////////   SHA   ////////////////////////////////////////////////
   ///////////////////////////////////////////////////////////////////////////////////////////////////
@@ -168,10 +250,12 @@ public final class Crypto {
    * @return String in Hex Format (0-9A-F)
    */
   private static String bytes2Hex(byte[] bytes) {
-    StringBuilder sb = new StringBuilder();
-    for (byte b : bytes)
-      sb.append(String.format(BYTE_FORMAT, b));
-    return sb.toString();
+    char[] hex = new char[2 * bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+      hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(hex);
   }
 
   /**
@@ -208,15 +292,68 @@ public final class Crypto {
     //if(true)
     //  return message;
     //DONE END DEBUGGING PLUG
+    return bytes2Hex(newHMAC(salt).doFinal(message.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Creates a new HmacSHA256 initialized with the given salt
+   *
+   * @param salt the salt
+   * @return the initialized Mac
+   * @throws CryptoException if there if anything wrong with the underlying cryptographic libraries
+   */
+  private static Mac newHMAC(String salt) throws CryptoException {
     try {
       Mac sha256_HMAC = Mac.getInstance(SHA256);
       sha256_HMAC.init(new SecretKeySpec(salt.getBytes(StandardCharsets.UTF_8), SHA256));
-      return bytes2Hex(sha256_HMAC.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+      return sha256_HMAC;
     } catch(NoSuchAlgorithmException | InvalidKeyException e) {
       throw new CryptoException("Could not hash the message with "+SHA256, e);
     }
   }
 
+  /**
+   * Hashes messages with HmacSHA256 and a fixed salt (the hash key of a session), with the same results as hashSHA256
+   * Each thread reuses its own initialized Mac, and the hashes of the genes (that are repeated on many lines) are memoized
+   */
+  public static final class Hasher {
+    private final ThreadLocal<Mac> hmac;
+    private final ConcurrentHashMap<String, String> genes;
+
+    /**
+     * Creates a new Hasher
+     *
+     * @param salt the salt
+     * @throws CryptoException if there if anything wrong with the underlying cryptographic libraries
+     */
+    public Hasher(String salt) throws CryptoException {
+      Mac first = newHMAC(salt); //fails now rather than in the first thread that hashes a message
+      this.hmac = ThreadLocal.withInitial(() -> newHMAC(salt));
+      this.hmac.set(first);
+      this.genes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Hashes a message
+     *
+     * @param message the message
+     * @return the Hex representation of the hash
+     */
+    public String hash(String message) {
+      return bytes2Hex(hmac.get().doFinal(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Hashes a gene name, the hash of each gene is computed only once
+     *
+     * @param gene the gene name
+     * @return the Hex representation of the hash
+     */
+    public String hashGene(String gene) {
+      return genes.computeIfAbsent(gene, this::hash);
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////
   //////////////////////////////////////////   RSA   ////////////////////////////////////////////////
   ///////////////////////////////////////////////////////////////////////////////////////////////////
@@ -5,8 +5,16 @@ import fr.inserm.u1078.tludwig.privas.instances.Instance;
 import fr.inserm.u1078.tludwig.privas.utils.binary.*;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Toolkit to extract annotations from reference files
@@ -18,30 +26,42 @@ import java.util.TreeMap;
  */
 public class ExtractAnnotations {
 
+  /**
+   * Number of GnomAD VCF files parsed concurrently
+   */
+  public static final int THREADS = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
   public static void export(String inputList, GnomADFileWriter out, Instance log) throws IOException {
-    long read = 0;
-    String line;
-    SortingBuffer sb = new SortingBuffer(out);
-    UniversalReader inList = new UniversalReader(inputList);
-    String inputGnomadVCF;
-    while((inputGnomadVCF = inList.readLine()) != null) { //FIXME everywhere, not startWith("#"), cut -f1 -d'#" and trim
-      log.logInfo(MSG.cat(MSG.EXT_PROCESS_GNOMAD, inputGnomadVCF));
-      UniversalReader in = new UniversalReader(inputGnomadVCF);
-      while ((line = in.readLine()) != null)
-        if (!line.startsWith("#")) {
-          for(GnomADLine l : GnomADLine.parseVCFLine(line))
-            if(!l.hasNullFreq())
-              sb.add(l);
-          read++;
-          if (read % 100000 == 0)
-            log.logInfo(MSG.cat(MSG.EXT_LINES, read+""));
-        }
-      in.close();
+    ExecutorService threadPool = Executors.newFixedThreadPool(THREADS);
+    Section section = null;
+    try {
+      section = new Section(inputList, getDirectory(out), threadPool, new AtomicInteger(), log);
+      section.write(out);
+    } finally {
+      shutdown(threadPool, section);
     }
-    inList.close();
-    sb.flush();
-    out.writeGnomADLine(GnomADLine.NULL);//As a separator
-    log.logInfo(MSG.cat(MSG.EXT_LINES, read+""));
+  }
+
+  /**
+   * Stops the parsing tasks, and deletes the temporary runs of the buffers that have not been merged (if a task or a section has failed)
+   * @param threadPool the thread pool of the parsing tasks
+   * @param sections   the sections (null for the sections that have not been created)
+   */
+  private static void shutdown(ExecutorService threadPool, Section... sections) {
+    threadPool.shutdownNow();
+    try {
+      //the running tasks stop at their next line, and discard their own buffers
+      threadPool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for(Section section : sections)
+      if(section != null)
+        section.discard();
+  }
+
+  private static File getDirectory(GnomADFileWriter out) {
+    return new File(out.getFilename()).getAbsoluteFile().getParentFile();
   }
 
   private static String[] getList(String filename) throws IOException {
@@ -55,24 +75,53 @@ public class ExtractAnnotations {
   }
 
   public static void convertGnomAD(String version, String gnomADExomeVCFList, String gnomADGenomeVCFList, String binaryOutput, Instance log) throws IOException {
-    GnomADFileWriter out = new GnomADFileWriter(binaryOutput);
+    convertGnomAD(version, gnomADExomeVCFList, gnomADGenomeVCFList, binaryOutput, GnomADIndexWriter.DEFAULT_BUFFER_SIZE, false, GnomADFileHeader.FORMAT_LINES, log);
+  }
+
+  /**
+   * Converts GnomAD VCF Files to a binary GnomAD File, the index is built while writing the binary file
+   * @param version             the GnomAD version
+   * @param gnomADExomeVCFList  the list of GnomAD Exome VCF Files
+   * @param gnomADGenomeVCFList the list of GnomAD Genome VCF Files
+   * @param binaryOutput        the binary GnomAD File
+   * @param bufferSize          the number of positions (or variants) per indexed block
+   * @param byVariants          if true, the blocks are sized by number of variants, to adapt to the density of each chromosome
+   * @param format              the format of the binary file (GnomADFileHeader.FORMAT_LINES or GnomADFileHeader.FORMAT_BLOCKS)
+   * @param log                 the instance that will log events
+   * @throws IOException if an I/O error occurs while reading the input files or writing the output files
+   */
+  public static void convertGnomAD(String version, String gnomADExomeVCFList, String gnomADGenomeVCFList, String binaryOutput, int bufferSize, boolean byVariants, int format, Instance log) throws IOException {
+    GnomADFileWriter out = new GnomADFileWriter(binaryOutput, format);
     Date start = new Date();
     GnomADFileHeader header = new GnomADFileHeader(version,
             getList(gnomADExomeVCFList),
             getList(gnomADGenomeVCFList),
-            start);
+            start,
+            format);
     out.writeGnomADFileHeader(header);
+    out.enableIndex(bufferSize, byVariants, log);
 
-    export(gnomADExomeVCFList, out, log);
-    Date endExome = new Date();
-    log.logInfo(MSG.EXT_DURATION_EXOME(start, endExome));
+    //all the files of both sections are parsed concurrently, sharing the memory, the sections are written one after the other
+    ExecutorService threadPool = Executors.newFixedThreadPool(THREADS);
+    AtomicInteger filling = new AtomicInteger();
+    Section exome = null;
+    Section genome = null;
+    Date endGenome;
+    try {
+      exome = new Section(gnomADExomeVCFList, getDirectory(out), threadPool, filling, log);
+      genome = new Section(gnomADGenomeVCFList, getDirectory(out), threadPool, filling, log);
+      exome.write(out);
+      Date endExome = new Date();
+      log.logInfo(MSG.EXT_DURATION_EXOME(start, endExome));
 
-    export(gnomADGenomeVCFList, out, log);
-    Date endGenome = new Date();
-    log.logInfo(MSG.EXT_DURATION_GENOME(endExome, endGenome));
+      genome.write(out);
+      endGenome = new Date();
+      log.logInfo(MSG.EXT_DURATION_GENOME(endExome, endGenome));
+    } finally {
+      shutdown(threadPool, exome, genome);
+    }
     out.close();
-
-    buildIndex(binaryOutput, log);
+    out.writeIndex();
 
     Date endIndex = new Date();
     log.logInfo(MSG.EXT_DURATION_INDEX(endGenome, endIndex));
@@ -81,45 +130,24 @@ public class ExtractAnnotations {
   }
 
   private static IndexData buildIndex(GnomADFileReader in, int bufferSize, Instance log) throws IOException {
-    final TreeMap<Integer, TreeMap<Integer, Long>> indices = new TreeMap<>();
-    final long offset = in.getBytesRead();
-
+    GnomADIndexBuilder builder = new GnomADIndexBuilder(bufferSize, false, log);
     GnomADLine line;
-    long read = 0;
-    long nb = 0;
-    int prevPos = -1;
     long lineOffset = in.getBytesRead();
     while (!(line = in.readGnomADLine()).isNull()) {
-      read++;
-      CanonicalVariant canonicalVariant = line.getCanonicalVariant();
-
-      TreeMap<Integer, Long> indexChrom = indices.computeIfAbsent(canonicalVariant.getChrom(), k -> new TreeMap<>());
-      if(indexChrom.isEmpty()){//new chromosome
-        prevPos = -1;
-        nb = 0;
-      }
-
-      if(canonicalVariant.getPos() < prevPos)
-        log.logWarning(MSG.EXT_UNSORTED(canonicalVariant, prevPos));
-
-      if (prevPos != canonicalVariant.getPos()) {//ignore multiallelic, just add the first index // Always false on new chrom
-        prevPos = canonicalVariant.getPos();
-        if(nb % bufferSize == 0)
-          /*if(indexChrom.containsKey(canonicalVariant.getPos()))
-            nb--;// since it is sorted, can be removed
-          else*/
-            indexChrom.put(canonicalVariant.getPos(), lineOffset);//indexChrom.put(line.getPos(), line.getOffset());
-        nb++; //++ after, or the first won't be added
-      }
-      lineOffset = in.getBytesRead();
+      long next = in.getBytesRead();
+      builder.add(line.getCanonicalVariant(), lineOffset, next);
+      lineOffset = next;
     }
-
-    return new IndexData(read, indices, lineOffset - offset);//return new IndexData(read, indices, line.getOffset() - offset);
+    return builder.build();
   }
 
   public static void buildIndex(String inputFile, int bufferSize, Instance log) throws IOException {
     GnomADFileReader in = new GnomADFileReader(inputFile);
     GnomADFileHeader head = in.readGnomADFileHeader();
+    if(head.getFormat() != GnomADFileHeader.FORMAT_LINES) {
+      in.close();
+      throw new IOException(MSG.EXT_NO_REBUILD);
+    }
     IndexData exome = buildIndex(in, bufferSize, log);
     IndexData genome = buildIndex(in, bufferSize, log);
 
@@ -146,6 +174,108 @@ public class ExtractAnnotations {
     buildIndex(inputFile, GnomADIndexWriter.DEFAULT_BUFFER_SIZE, log);
   }
 
+  /**
+   * Exome or Genome section of the GnomAD file : each listed GnomAD VCF file is parsed by its own task in a sorted buffer,
+   * the buffers are merged when the section is written. The buffers being filled share the memory
+   */
+  private static class Section {
+    private final ArrayList<Future<SortingBuffer>> buffers;
+    private final AtomicLong read;
+    private final Instance log;
+
+    Section(String inputList, File dir, ExecutorService threadPool, AtomicInteger filling, Instance log) throws IOException {
+      this.buffers = new ArrayList<>();
+      this.read = new AtomicLong();
+      this.log = log;
+      //the list is read before submitting the tasks, so that no task is left behind if it can't be read
+      ArrayList<String> filenames = new ArrayList<>();
+      UniversalReader inList = new UniversalReader(inputList);
+      String inputGnomadVCF;
+      while((inputGnomadVCF = inList.readLine()) != null)
+        filenames.add(inputGnomadVCF);
+      inList.close();
+      for(String filename : filenames)
+        buffers.add(threadPool.submit(() -> parse(filename, dir, filling)));
+    }
+
+    /**
+     * Parses a GnomAD VCF File
+     * @param inputGnomadVCF the GnomAD VCF File
+     * @param dir            the directory of the temporary files
+     * @param filling        the number of buffers being filled
+     * @return the sorted buffer of the lines
+     * @throws IOException if an I/O error occurs while reading the VCF File or writing the temporary files
+     */
+    private SortingBuffer parse(String inputGnomadVCF, File dir, AtomicInteger filling) throws IOException {
+      log.logInfo(MSG.cat(MSG.EXT_PROCESS_GNOMAD, inputGnomadVCF));
+      String line;
+      UniversalReader in = new UniversalReader(inputGnomadVCF);
+      //memory is shared by the concurrent tasks
+      SortingBuffer sb = new SortingBuffer(dir, filling);
+      try {
+        while ((line = in.readLine()) != null) {
+          //the conversion has failed elsewhere
+          if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException();
+          if (!line.startsWith("#")) {
+            for(GnomADLine l : GnomADLine.parseVCFLine(line))
+              if(!l.hasNullFreq())
+                sb.add(l);
+            long r = read.incrementAndGet();
+            if (r % 100000 == 0)
+              log.logInfo(MSG.cat(MSG.EXT_LINES, r+""));
+          }
+        }
+        //the buffer waits for the other files without holding memory
+        sb.finish();
+      } catch (IOException | RuntimeException e) {
+        sb.discard();
+        throw e;
+      } finally {
+        in.close();
+      }
+      return sb;
+    }
+
+    /**
+     * Deletes the temporary runs of the buffers that have been parsed, and not merged
+     */
+    void discard() {
+      for(Future<SortingBuffer> buffer : buffers)
+        if(buffer.isDone() && !buffer.isCancelled())
+          try {
+            buffer.get().discard();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (ExecutionException ignore) {
+            //the task has discarded its own buffer
+          }
+    }
+
+    /**
+     * Waits for all the files to be parsed, and writes the merged lines, followed by a separator
+     * @param out the GnomADFileWriter
+     * @throws IOException if an I/O error occurs while parsing, merging or writing the lines
+     */
+    void write(GnomADFileWriter out) throws IOException {
+      ArrayList<SortingBuffer> sorted = new ArrayList<>();
+      try {
+        for(Future<SortingBuffer> buffer : buffers)
+          sorted.add(buffer.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        if(e.getCause() instanceof IOException)
+          throw (IOException)e.getCause();
+        throw new RuntimeException(e.getCause());
+      }
+      SortingBuffer.merge(sorted, out);
+      out.writeGnomADLine(GnomADLine.NULL);//As a separator
+      log.logInfo(MSG.cat(MSG.EXT_LINES, read.get()+""));
+    }
+  }
+
   /**
    * Utility class to store results of extractions
    */
@@ -0,0 +1,229 @@
+package fr.inserm.u1078.tludwig.privas.utils;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADAnnotationService;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADSweep;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel conversion of the variants of a VCF file to a Genotype File (same design as the QualityControl) : <br/>
+ * - a Reader hands out numbered batches of VCF lines <br/>
+ * - Workers parse and annotate the batches (each with its own GnomAD Sweep, as the batches of a worker are sorted) <br/>
+ * - the Writer (the calling thread) writes the converted batches in the order of the VCF file
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class GenotypesConverter {
+  /**
+   * Number of workers, the reader is shared by the workers, and the calling thread writes the output
+   */
+  public static final int WORKERS = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() - 1));
+  /**
+   * Number of VCF lines in each batch
+   */
+  private static final int BATCH_SIZE = 64;
+  /**
+   * The progress is logged every STEP lines written
+   */
+  private static final int STEP = 10000;
+
+  private final UniversalReader in;
+  private String pending;
+  private final int[] indices;
+  private final GnomADAnnotationService gnomAD;
+  private final PrintWriter out;
+  private final Instance log;
+  private final int workers;
+  private final LinkedBlockingQueue<Batch> converted;
+
+  private int read = 0;
+  private boolean closed = false;
+  private volatile Exception error = null;
+
+  /**
+   * Prepares the conversion
+   *
+   * @param in        the VCF file, after the headers
+   * @param firstLine the first variant line, already read from the file
+   * @param idxCsq    index of the Consequence value in the vep annotations
+   * @param idxGene   index of the SYMBOL value in the vep annotations
+   * @param idxSource index of the SYMBOL_SOURCE value in the vep annotations
+   * @param idxAN     index of the ALLELE_NUM value in the vep annotations
+   * @param gnomAD    the GnomAD annotation service
+   * @param out       the PrintWriter to the Genotype File
+   * @param log       the instance that will log events
+   * @param workers   the number of workers
+   */
+  GenotypesConverter(UniversalReader in, String firstLine, int idxCsq, int idxGene, int idxSource, int idxAN, GnomADAnnotationService gnomAD, PrintWriter out, Instance log, int workers) {
+    this.in = in;
+    this.pending = firstLine;
+    this.indices = new int[]{idxCsq, idxGene, idxSource, idxAN};
+    this.gnomAD = gnomAD;
+    this.out = out;
+    this.log = log;
+    this.workers = workers;
+    //bounded, so that the workers wait for the writer
+    this.converted = new LinkedBlockingQueue<>(4 * workers);
+  }
+
+  /**
+   * Converts all the variants
+   *
+   * @return the number of lines written in the Genotype File
+   * @throws IOException                                if an I/O error occurs while reading the VCF file or the GnomAD File
+   * @throws GenotypesFileHandler.GenotypeFileException if a line doesn't have a VEP annotation
+   */
+  long convert() throws IOException, GenotypesFileHandler.GenotypeFileException {
+    ExecutorService threadPool = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; i++)
+      threadPool.submit(new Worker());
+    threadPool.shutdown();
+
+    long nbLines = 0;
+    long nextStep = STEP;
+    int next = 0;
+    int ended = 0;
+    HashMap<Integer, Batch> desynchronized = new HashMap<>();
+    try {
+      while (ended < workers) {
+        Batch batch = converted.take();
+        if (batch.isEnd()) {
+          ended++;
+          continue;
+        }
+        desynchronized.put(batch.n, batch);
+        while ((batch = desynchronized.remove(next)) != null) {
+          next++;
+          if (error == null) {
+            out.print(batch.lines);
+            nbLines += batch.nbLines;
+            if (nbLines >= nextStep) {
+              log.logInfo(MSG.cat(MSG.GNFH_CONVERTED_LINES, nbLines));
+              nextStep = (nbLines / STEP + 1) * STEP;
+            }
+          }
+        }
+      }
+      threadPool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      threadPool.shutdownNow();
+      throw new IOException(e);
+    } finally {
+      close();
+    }
+
+    if (error instanceof IOException)
+      throw (IOException) error;
+    if (error instanceof GenotypesFileHandler.GenotypeFileException)
+      throw (GenotypesFileHandler.GenotypeFileException) error;
+    if (error != null)
+      throw new RuntimeException(error);
+    return nbLines;
+  }
+
+  /**
+   * Gets the next batch of VCF lines
+   *
+   * @return the next batch, or null if there are no more lines (or if an error occurred)
+   */
+  private synchronized Batch getNext() {
+    if (closed || error != null)
+      return null;
+    ArrayList<String> lines = new ArrayList<>(BATCH_SIZE);
+    try {
+      if (pending != null) {
+        lines.add(pending);
+        pending = null;
+      }
+      String line;
+      while (lines.size() < BATCH_SIZE && (line = in.readLine()) != null)
+        lines.add(line);
+    } catch (IOException e) {
+      fail(e);
+      return null;
+    }
+    if (lines.isEmpty()) {
+      close();
+      return null;
+    }
+    return new Batch(read++, lines);
+  }
+
+  private synchronized void close() {
+    if (!closed) {
+      closed = true;
+      try {
+        in.close();
+      } catch (IOException ignore) {
+        //ignore
+      }
+    }
+  }
+
+  private synchronized void fail(Exception e) {
+    if (error == null)
+      error = e;
+  }
+
+  /**
+   * Worker : parses and annotates batches until there are no more lines
+   */
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      GnomADSweep sweep = gnomAD.newSweep();
+      try {
+        Batch batch;
+        while ((batch = getNext()) != null) {
+          StringBuilder sb = new StringBuilder();
+          for (String line : batch.vcf)
+            batch.nbLines += GenotypesFileHandler.convertLine2Genotypes(line, indices[0], indices[1], indices[2], indices[3], sweep, sb);
+          batch.vcf = null;
+          batch.lines = sb.toString();
+          converted.put(batch);
+        }
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        try {
+          converted.put(Batch.END);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Batch of VCF lines, and their conversion
+   */
+  private static class Batch {
+    private static final Batch END = new Batch(-1, null);
+    private final int n;
+    private ArrayList<String> vcf;
+    private String lines;
+    private int nbLines = 0;
+
+    Batch(int n, ArrayList<String> vcf) {
+      this.n = n;
+      this.vcf = vcf;
+    }
+
+    boolean isEnd() {
+      return this == END;
+    }
+  }
+}
@@ -0,0 +1,324 @@
+package fr.inserm.u1078.tludwig.privas.utils;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.listener.ProgressListener;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GenotypesBlock;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GenotypesStoreReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel extraction of the lines of a Genotype File that pass a set of filters (same design as the GenotypesConverter) : <br/>
+ * - a Reader hands out numbered batches of Genotype lines, or the numbered blocks of the Genotypes Store <br/>
+ * - Workers parse (or decode), filter and hash the batches <br/>
+ * - blocks of the Genotypes Store where no line can pass the filters are skipped without being read, and the genotypes of a block are only read if one of its lines passes <br/>
+ * - the calling thread reassembles the extracted batches in the order of the Genotype File <br/>
+ * The output is the same whatever the number of workers, so that the lines can be shuffled deterministically afterwards.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class GenotypesExtractor {
+  /**
+   * Number of workers, the reader is shared by the workers, and the calling thread only reassembles the batches
+   */
+  public static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors());
+  /**
+   * Number of Genotype lines in each batch
+   */
+  private static final int BATCH_SIZE = 256;
+  /**
+   * The progress is updated every STEP lines read
+   */
+  private static final int STEP = 1000;
+
+  private final UniversalReader in;
+  private String pending;
+  private final GenotypesStoreReader store;
+  private final List<GenotypesStoreReader.BlockInfo> blocks;
+  private final long totalLines;
+  private final double maxMAF;
+  private final int subpopIndex;
+  private final double maxMAFSubpop;
+  private final int minCSQIdx;
+  private final Crypto.Hasher hasher;
+  private final int[] columnOrder;
+  private final boolean limitToSNVs;
+  private final BedFile bed;
+  private final Instance instance;
+  private final ProgressListener progress;
+  private final int workers;
+  private final LinkedBlockingQueue<Batch> extracted;
+  private final AtomicInteger skipped;
+
+  private int read = 0;
+  private boolean closed = false;
+  private volatile Exception error = null;
+  private long nbRead = 0;
+
+  /**
+   * Prepares the extraction from a Genotype File
+   *
+   * @param in           the Genotype File, after the headers
+   * @param firstLine    the first genotype line, already read from the file
+   * @param totalLines   the total number of line in the Genotype File
+   * @param maxMAF       the maximum GnomAD_AF allowed
+   * @param subpopIndex  the column of the selected GnomAD subpopulation
+   * @param maxMAFSubpop the maximum GnomAD_Subpop_AF allowed
+   * @param minCSQIdx    the least severe consequence allowed
+   * @param hasher       the hasher, with the hash salt
+   * @param columnOrder  the new order of the samples columns
+   * @param limitToSNVs  is the extraction limited to SNVs ?
+   * @param bed          list of all well covered positions
+   * @param instance     the instance that will log events
+   * @param progress     the ProgressListener to update during the extraction
+   * @param workers      the number of workers
+   */
+  GenotypesExtractor(UniversalReader in, String firstLine, long totalLines, double maxMAF, int subpopIndex, double maxMAFSubpop, int minCSQIdx, Crypto.Hasher hasher, int[] columnOrder, boolean limitToSNVs, BedFile bed, Instance instance, ProgressListener progress, int workers) {
+    this(in, firstLine, null, totalLines, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hasher, columnOrder, limitToSNVs, bed, instance, progress, workers);
+  }
+
+  /**
+   * Prepares the extraction from a Genotypes Store
+   *
+   * @param store        the Genotypes Store
+   * @param totalLines   the total number of line in the Genotype File
+   * @param maxMAF       the maximum GnomAD_AF allowed
+   * @param subpopIndex  the column of the selected GnomAD subpopulation
+   * @param maxMAFSubpop the maximum GnomAD_Subpop_AF allowed
+   * @param minCSQIdx    the least severe consequence allowed
+   * @param hasher       the hasher, with the hash salt
+   * @param columnOrder  the new order of the samples columns
+   * @param limitToSNVs  is the extraction limited to SNVs ?
+   * @param bed          list of all well covered positions
+   * @param instance     the instance that will log events
+   * @param progress     the ProgressListener to update during the extraction
+   * @param workers      the number of workers
+   */
+  GenotypesExtractor(GenotypesStoreReader store, long totalLines, double maxMAF, int subpopIndex, double maxMAFSubpop, int minCSQIdx, Crypto.Hasher hasher, int[] columnOrder, boolean limitToSNVs, BedFile bed, Instance instance, ProgressListener progress, int workers) {
+    this(null, null, store, totalLines, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hasher, columnOrder, limitToSNVs, bed, instance, progress, workers);
+  }
+
+  private GenotypesExtractor(UniversalReader in, String firstLine, GenotypesStoreReader store, long totalLines, double maxMAF, int subpopIndex, double maxMAFSubpop, int minCSQIdx, Crypto.Hasher hasher, int[] columnOrder, boolean limitToSNVs, BedFile bed, Instance instance, ProgressListener progress, int workers) {
+    this.in = in;
+    this.pending = firstLine;
+    this.store = store;
+    this.blocks = store == null ? null : store.getBlocks();
+    this.totalLines = totalLines;
+    this.maxMAF = maxMAF;
+    this.subpopIndex = subpopIndex;
+    this.maxMAFSubpop = maxMAFSubpop;
+    this.minCSQIdx = minCSQIdx;
+    this.hasher = hasher;
+    this.columnOrder = columnOrder;
+    this.limitToSNVs = limitToSNVs;
+    this.bed = bed;
+    this.instance = instance;
+    this.progress = progress;
+    this.workers = workers;
+    //bounded, so that the workers wait for the reassembly
+    this.extracted = new LinkedBlockingQueue<>(4 * workers);
+    this.skipped = new AtomicInteger();
+  }
+
+  /**
+   * Extracts all the lines
+   *
+   * @param output the list to fill with the extracted lines, in the order of the Genotype File
+   * @return the number of genotype lines read
+   * @throws IOException if an I/O error occurs while reading the Genotype File or the Genotypes Store
+   */
+  long extract(ArrayList<String> output) throws IOException {
+    ExecutorService threadPool = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; i++)
+      threadPool.submit(new Worker());
+    threadPool.shutdown();
+
+    int previous = -1;
+    int next = 0;
+    int ended = 0;
+    HashMap<Integer, Batch> desynchronized = new HashMap<>();
+    try {
+      while (ended < workers) {
+        Batch batch = extracted.take();
+        if (batch.isEnd()) {
+          ended++;
+          continue;
+        }
+        desynchronized.put(batch.n, batch);
+        while ((batch = desynchronized.remove(next)) != null) {
+          next++;
+          if (error == null) {
+            output.addAll(batch.lines);
+            long before = nbRead;
+            nbRead += batch.nbRead;
+            if (nbRead / STEP != before / STEP) {
+              int percent = (int) (100 * (nbRead - nbRead % STEP) / totalLines);
+              if (percent != previous) {
+                GenotypesFileHandler.progress(progress, percent, instance);
+                previous = percent;
+              }
+            }
+          }
+        }
+      }
+      threadPool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      threadPool.shutdownNow();
+      throw new IOException(e);
+    } finally {
+      //every worker has posted its END (or the extraction is interrupted) : no block is being read anymore
+      close();
+    }
+
+    if (error instanceof IOException)
+      throw (IOException) error;
+    if (error != null)
+      throw new RuntimeException(error);
+    if (store != null)
+      instance.logDebug(MSG.cat(MSG.GNFH_STORE_SKIPPED, skipped.get() + "/" + blocks.size()));
+    return nbRead;
+  }
+
+  /**
+   * Gets the next batch of Genotype lines, or the next block of the Genotypes Store
+   *
+   * @return the next batch, or null if there are no more lines (or if an error occurred)
+   */
+  private synchronized Batch getNext() {
+    if (closed || error != null)
+      return null;
+    if (store != null) {
+      if (read < blocks.size()) {
+        Batch batch = new Batch(read, blocks.get(read));
+        read++;
+        return batch;
+      }
+      //the other workers may still be reading their blocks, the store is closed by extract() once all the workers have ended
+      return null;
+    }
+    ArrayList<String> lines = new ArrayList<>(BATCH_SIZE);
+    try {
+      if (pending != null) {
+        lines.add(pending);
+        pending = null;
+      }
+      String line;
+      while (lines.size() < BATCH_SIZE && (line = in.readLine()) != null)
+        lines.add(line);
+    } catch (IOException e) {
+      fail(e);
+      return null;
+    }
+    if (lines.isEmpty()) {
+      close();
+      return null;
+    }
+    return new Batch(read++, lines);
+  }
+
+  private synchronized void close() {
+    if (!closed) {
+      closed = true;
+      try {
+        if (store != null)
+          store.close();
+        else
+          in.close();
+      } catch (IOException ignore) {
+        //ignore
+      }
+    }
+  }
+
+  private synchronized void fail(Exception e) {
+    if (error == null)
+      error = e;
+  }
+
+  /**
+   * Worker : parses (or decodes), filters and hashes batches until there are no more lines
+   */
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      try {
+        Batch batch;
+        while ((batch = getNext()) != null) {
+          ArrayList<String> lines = new ArrayList<>();
+          if (batch.block != null) {
+            batch.nbRead = batch.block.getNbLines();
+            if (GenotypesFileHandler.mayPass(batch.block, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, limitToSNVs, bed)) {
+              GenotypesBlock block = store.readBlock(batch.block);
+              for (int l = 0; l < block.size(); l++)
+                if (GenotypesFileHandler.passes(block, l, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, limitToSNVs, bed)) {
+                  if (lines.isEmpty())
+                    store.readGenotypes(block);
+                  lines.add(GenotypesFileHandler.extractLine(block, l, hasher, columnOrder));
+                }
+            } else
+              skipped.incrementAndGet();
+          } else
+            for (String line : batch.genotypes)
+              if (!line.startsWith("#")) {
+                batch.nbRead++;
+                String kept = GenotypesFileHandler.extractLine(line, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hasher, columnOrder, limitToSNVs, bed);
+                if (kept != null)
+                  lines.add(kept);
+              }
+          batch.genotypes = null;
+          batch.lines = lines;
+          extracted.put(batch);
+        }
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        try {
+          extracted.put(Batch.END);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Batch of Genotype lines (or block of the Genotypes Store), and the extracted lines
+   */
+  private static class Batch {
+    private static final Batch END = new Batch(-1, (ArrayList<String>) null);
+    private final int n;
+    private ArrayList<String> genotypes;
+    private final GenotypesStoreReader.BlockInfo block;
+    private ArrayList<String> lines;
+    private int nbRead = 0;
+
+    Batch(int n, ArrayList<String> genotypes) {
+      this.n = n;
+      this.genotypes = genotypes;
+      this.block = null;
+    }
+
+    Batch(int n, GenotypesStoreReader.BlockInfo block) {
+      this.n = n;
+      this.genotypes = null;
+      this.block = block;
+    }
+
+    boolean isEnd() {
+      return this == END;
+    }
+  }
+}
@@ -10,10 +10,16 @@ import fr.inserm.u1078.tludwig.privas.constants.FileFormat;
 import fr.inserm.u1078.tludwig.privas.constants.MSG;
 import fr.inserm.u1078.tludwig.privas.instances.Instance;
 import fr.inserm.u1078.tludwig.privas.listener.ProgressListener;
-import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADIndexReader;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GenotypesBlock;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GenotypesStoreReader;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GenotypesStoreWriter;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADAnnotationService;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADAnnotator;
 import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADLine;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Class to Handle Genotype Files
@@ -101,6 +107,10 @@ public class GenotypesFileHandler {
 
   public static final String ZERO = "0.0";
   public static final String[] ZEROS = {ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO, ZERO};
+  /**
+   * Values of the genotypes in the Genotype Files, indexed by genotype + 1
+   */
+  private static final String[] GENOTYPES = {"-1", "0", "1", "2"};
   
   private GenotypesFileHandler() {
     //This class cannot be instantiated
@@ -123,9 +133,31 @@ public class GenotypesFileHandler {
    * @throws GenotypesFileHandler.GenotypeFileException if the file is not in the exception format
    */
   public static GenotypesFile convertVCF2Genotypes(String vcfFilename, String gnomADFilename, Instance log) throws IOException, GenotypeFileException {
+    return convertVCF2Genotypes(vcfFilename, gnomADFilename, log, GenotypesConverter.WORKERS);
+  }
+
+  /**
+   * Converts a VCF File to a Genotype File, the variants are parsed and annotated in parallel
+   * Plain text and bgzipped VCF files are cut in shards converted independently, gzipped VCF files are read by a single thread
+   * <p>
+   * The input VCF file must contain the following Variant effect predictor annotations :
+   * 1. prefixed with "CSQ="
+   * 2. containing "Consequence"
+   * 3. containing "SYMBOL"
+   * 4. containing "gnomAD_AF"
+   * 5. containing "ALLELE_NUM"
+   *
+   * @param vcfFilename           the name of the VCF file to convert
+   * @param gnomADFilename  the name of the GnomAD binary File
+   * @param log the instance that will log events
+   * @param workers the number of threads parsing and annotating the variants
+   * @throws IOException          if there are problems while reading the file
+   * @throws GenotypesFileHandler.GenotypeFileException if the file is not in the exception format
+   */
+  public static GenotypesFile convertVCF2Genotypes(String vcfFilename, String gnomADFilename, Instance log, int workers) throws IOException, GenotypeFileException {
 
-    GnomADIndexReader bin = new GnomADIndexReader(gnomADFilename, log);
-    String gnomADVersion = bin.getHeader().getVersion();
+    GnomADAnnotationService gnomAD = GnomADAnnotationService.getService(gnomADFilename, log);
+    String gnomADVersion = gnomAD.getHeader().getVersion();
     String genotypeFilename = FileUtils.addGnomADToQCedVCFFilename(vcfFilename, gnomADVersion);
 
     int idxCsq = -1;
@@ -140,52 +172,61 @@ public class GenotypesFileHandler {
     long nbLines = 0;
     PrintWriter out = new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(genotypeFilename)), StandardCharsets.UTF_8));
     out.println("#"+FileFormat.GENOPTYES_HEADER_GNOMAD_FILENAME+"\t"+gnomADFilename);
-    while ((line = in.readLine()) != null)
-      if (line.startsWith("#")) {
-        if (line.startsWith(VEP_PREFIX)) {
-          vepString = line;
-          int idx = line.lastIndexOf(' ');
-          String[] f = line.substring(idx, line.length() - 2).split("\\|", -1);
-          for (int i = 0; i < f.length; i++) {
-            if (VEP_CSQ.equals(f[i]))
-              idxCsq = i;
-            if (VEP_GENE.equals(f[i]))
-              idxGene = i;
-            if (VEP_SOURCE.equals(f[i]))
-              idxSource = i;
-            if (VEP_ALLELE_NUM.equals(f[i]))
-              idxAN = i;
-          }
-          if (idxCsq == -1)
-            throw new GenotypeFileException("Unable to find " + VEP_CSQ + " in the VEP header");
-          if (idxGene == -1)
-            throw new GenotypeFileException("Unable to find " + VEP_GENE + " in the VEP header");
-          if (idxSource == -1)
-            throw new GenotypeFileException("Unable to find " + VEP_SOURCE + " in the VEP header");
-          if (idxAN == -1)
-            throw new GenotypeFileException("Unable to find " + VEP_ALLELE_NUM + " in the VEP header");
-          log.logDebug(VEP_CSQ+" --> "+idxCsq);
-          log.logDebug(VEP_GENE+" --> "+idxGene);
-          log.logDebug(VEP_SOURCE+" --> "+idxSource);
-          log.logDebug(VEP_ALLELE_NUM+" --> "+idxAN);
-        } else if (line.startsWith(HEADER_PREFIX))
-          header = line;
-      } else {
-        if (vepString == null)
-          throw new GenotypeFileException("Your VCF file does not seem to contain VEP annotations. Can't proceed.");
-        if (header == null)
-          throw new GenotypeFileException("Your VCF file seems to be badly formatted. Missing header.");
+    while ((line = in.readLine()) != null && line.startsWith("#")) {
+      if (line.startsWith(VEP_PREFIX)) {
+        vepString = line;
+        int idx = line.lastIndexOf(' ');
+        String[] f = line.substring(idx, line.length() - 2).split("\\|", -1);
+        for (int i = 0; i < f.length; i++) {
+          if (VEP_CSQ.equals(f[i]))
+            idxCsq = i;
+          if (VEP_GENE.equals(f[i]))
+            idxGene = i;
+          if (VEP_SOURCE.equals(f[i]))
+            idxSource = i;
+          if (VEP_ALLELE_NUM.equals(f[i]))
+            idxAN = i;
+        }
+        if (idxCsq == -1)
+          throw new GenotypeFileException("Unable to find " + VEP_CSQ + " in the VEP header");
+        if (idxGene == -1)
+          throw new GenotypeFileException("Unable to find " + VEP_GENE + " in the VEP header");
+        if (idxSource == -1)
+          throw new GenotypeFileException("Unable to find " + VEP_SOURCE + " in the VEP header");
+        if (idxAN == -1)
+          throw new GenotypeFileException("Unable to find " + VEP_ALLELE_NUM + " in the VEP header");
+        log.logDebug(VEP_CSQ+" --> "+idxCsq);
+        log.logDebug(VEP_GENE+" --> "+idxGene);
+        log.logDebug(VEP_SOURCE+" --> "+idxSource);
+        log.logDebug(VEP_ALLELE_NUM+" --> "+idxAN);
+      } else if (line.startsWith(HEADER_PREFIX))
+        header = line;
+    }
 
-        nbLines += convertLine2Genotypes(line, idxCsq, idxGene, idxSource, idxAN, bin, out);
-        if(nbLines % 10000 == 0)
-          log.logInfo(MSG.cat(MSG.GNFH_CONVERTED_LINES, nbLines));
-      }
+    if (line != null) {
+      if (vepString == null)
+        throw new GenotypeFileException("Your VCF file does not seem to contain VEP annotations. Can't proceed.");
+      if (header == null)
+        throw new GenotypeFileException("Your VCF file seems to be badly formatted. Missing header.");
+      if (workers > 1 && ShardedGenotypesConverter.isSplittable(vcfFilename)) {
+        //plain text or bgzipped VCF : independent shards of the file are converted in parallel, and appended to the header
+        in.close();
+        out.close();
+        nbLines = new ShardedGenotypesConverter(vcfFilename, idxCsq, idxGene, idxSource, idxAN, gnomAD, log, workers).convert(genotypeFilename);
+      } else //the variants are converted in parallel, line is the first variant
+        nbLines = new GenotypesConverter(in, line, idxCsq, idxGene, idxSource, idxAN, gnomAD, out, log, workers).convert();
+    }
     
     in.close();
     out.close();
     out = new PrintWriter(new FileWriter(genotypeFilename + "." + FileFormat.FILE_GENO_SIZE_EXTENSION));
     out.println(nbLines);
     out.close();
+    try {
+      buildGenotypesStore(genotypeFilename);
+    } catch (IOException e) {
+      log.logWarning(MSG.cat(MSG.GNFH_STORE_UNAVAILABLE, e));
+    }
     return new GenotypesFile(genotypeFilename, nbLines);
   }
 
@@ -218,13 +259,13 @@ public class GenotypesFileHandler {
    * @param idxGene   index of the SYMBOL value in the vep annotations
    * @param idxSource index of the SYMBOL_SOURCE value in the vep annotations
    * @param idxAN     index of the ALLELE_NUM value in the vep annotations
-   * @param bin       Gnomad Binary File
-   * @param out       the PrintWriter to the Genotype File
+   * @param bin       Annotator for the Gnomad Binary File
+   * @param out       the converted lines, to append to the Genotype File
    * @return          the number of lines written in the Genotype File (several lines for multi-allelic and/or multiple annotations)
-   * @throws IOException  If an I/O error occurs while reading the GnomAD File or its index
    * @throws GenotypesFileHandler.GenotypeFileException if the line doesn't have a VEP annotation
+   * @throws IOException if an I/O error occurs while reading the GnomAD File
    */
-  private static int convertLine2Genotypes(String line, int idxCsq, int idxGene, int idxSource, int idxAN, GnomADIndexReader bin, PrintWriter out) throws IOException, GenotypeFileException {
+  static int convertLine2Genotypes(String line, int idxCsq, int idxGene, int idxSource, int idxAN, GnomADAnnotator bin, StringBuilder out) throws GenotypeFileException, IOException {
     String[] f = line.split(T);
     String[] alts = f[VCF_ALT].split(",", -1);
     int nb = alts.length;
@@ -265,7 +306,7 @@ public class GenotypesFileHandler {
         sb.append(T).append(String.join(T, gnomADGenomeFrequencies));
         for (int geno : genotypes)
           sb.append(T).append(geno);
-        out.println(sb);
+        out.append(sb).append(System.lineSeparator());
         nbLines++;
       }
     }
@@ -343,8 +384,6 @@ public class GenotypesFileHandler {
     return ret;
   }
 
-  private final static int STEP = 1000;
-
   /**
    * Get the number of lines in a Genotype File
    * If the file has its associated .size file, the value is simply read from this file
@@ -407,7 +446,7 @@ public class GenotypesFileHandler {
    * @param progressListener the ProgressListener
    * @param percent          the the progress of the extraction in percent
    */
-  private static void progress(ProgressListener progressListener, int percent, Instance instance) {
+  static void progress(ProgressListener progressListener, int percent, Instance instance) {
     if (progressListener != null)
       progressListener.progressChanged(percent);
     else
@@ -504,39 +543,32 @@ public class GenotypesFileHandler {
     int minCSQIdx = getConsequenceLevel(minCSQ);
     if(minCSQIdx < 0)
       throw new GenotypeFileException("Can't find level for consequence ["+minCSQ+"]");
-    long read = 0;
-    UniversalReader in = new UniversalReader(genotypeFilename);
-    String line;
-    int previous = -1;
-    int percent = 0;
-    progress(progress, percent, instance);
+    progress(progress, 0, instance);
+    Crypto.Hasher hasher = new Crypto.Hasher(hash);
 
+    //the kept lines are gathered in the order of the file, and shuffled once at the end
+    //the column order is drawn before the extraction, so that the random sequence doesn't depend on the workers
     ArrayList<String> output = new ArrayList<>();
-    ArrayList<Integer> columnOrder = null;
-    while ((line = in.readLine()) != null) //TODO can be parallelized
-      if(!line.startsWith("#")){
-        read++;
-        if (read % STEP == 0) {
-          percent = (int) (100 * read / totalLines);
-          if (percent != previous) {
-            progress(progress, percent, instance);
-            previous = percent;
-          }
-        }
-        //At the first line, create the column order
-        if (columnOrder == null) {
-          columnOrder = new ArrayList<>();
-          for (int n = GENO_GENOTYPES; n < line.split(T).length; n++) {
-            //columnOrder.add(n);//
-            addAtRandomPosition(columnOrder, n, random); //DONE scramble data, the scrambling isn't always the same, even with a static seed. Corrected
-          }
-        }
-        String extracted = extractLine(line, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hash, columnOrder, limitToSNVs, bed);
-        if (extracted != null)
-          addAtRandomPosition(output, extracted, random);
-      }
+    long read = 0;
+    GenotypesStoreReader store = openGenotypesStore(genotypeFilename, instance);
+    if (store != null) {
+      int[] columnOrder = getColumnOrder(store.getNbSamples(), random);
+      read = new GenotypesExtractor(store, totalLines, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hasher, columnOrder, limitToSNVs, bed, instance, progress, GenotypesExtractor.WORKERS).extract(output);
+    } else {
+      UniversalReader in = new UniversalReader(genotypeFilename);
+      String line;
+      //skip the headers, the first line gives the number of samples
+      do
+        line = in.readLine();
+      while (line != null && line.startsWith("#"));
 
-    in.close();
+      if (line != null) {
+        int[] columnOrder = getColumnOrder(line.split(T).length - GENO_GENOTYPES, random);
+        read = new GenotypesExtractor(in, line, totalLines, maxMAF, subpopIndex, maxMAFSubpop, minCSQIdx, hasher, columnOrder, limitToSNVs, bed, instance, progress, GenotypesExtractor.WORKERS).extract(output);
+      } else
+        in.close();
+    }
+    Collections.shuffle(output, random);
 
     instance.logInfo("Extraction of file ["+genotypeFilename+"] complete. Lines kept ["+output.size()+"/"+read+"]");
 
@@ -544,13 +576,31 @@ public class GenotypesFileHandler {
   }
 
   /**
-   * Adds an object at a Random Position in a List
-   * @param list    the list of shuffled objects
-   * @param object  the object to add 
+   * Gets the shuffled order of the samples columns
+   * @param nbSamples the number of samples
+   * @param random    the random generator
+   * @return the indices of the samples columns, in a random order
+   */
+  private static int[] getColumnOrder(int nbSamples, Random random){
+    int[] columnOrder = new int[nbSamples];
+    for (int n = 0; n < columnOrder.length; n++)
+      columnOrder[n] = GENO_GENOTYPES + n;
+    shuffle(columnOrder, random); //DONE scramble data, the scrambling isn't always the same, even with a static seed. Corrected
+    return columnOrder;
+  }
+
+  /**
+   * Shuffles an array in place (Fisher-Yates shuffle, as Collections.shuffle for the lists)
+   * @param array   the array to shuffle
    * @param random  the random generator
    */
-  private static <E> void addAtRandomPosition(ArrayList<E> list, E object, Random random){
-    list.add(random.nextInt(list.size() + 1), object);
+  private static void shuffle(int[] array, Random random){
+    for (int i = array.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = array[i];
+      array[i] = array[j];
+      array[j] = tmp;
+    }
   }
   
   /**
@@ -561,18 +611,159 @@ public class GenotypesFileHandler {
    * @param subpopColumn  the column of the selected GnomAD subpopulation
    * @param maxMAFSubpop  the maximum GnomAD_Subpop_AF allowed
    * @param minCSQ        the least severe consequence allowed
-   * @param hash          the hash salt
+   * @param hasher        the hasher, with the hash salt
    * @param order         the new order of the samples columns (the samples are shuffled)
    * @param limitToSNVs   is the extraction limited to SNVs ?
    * @param bed           list of all well covered positions
    * @return              the hashed extracted line, if the passes the filters, null otherwise
    */
-  private static String extractLine(String line, double maxMAF, int subpopColumn, double maxMAFSubpop, int minCSQ, String hash, ArrayList<Integer> order, boolean limitToSNVs, BedFile bed) {
+  static String extractLine(String line, double maxMAF, int subpopColumn, double maxMAFSubpop, int minCSQ, Crypto.Hasher hasher, int[] order, boolean limitToSNVs, BedFile bed) {
     String[] f = line.split(T);
     CanonicalVariant canonicalVariant = new CanonicalVariant(f[GENO_VARIANT]);
-    if(limitToSNVs && !canonicalVariant.isSNV())
+    if(!isInScope(canonicalVariant, limitToSNVs, bed))
+      return null;
+
+    double mafExome = parseFrequency(f[GENO_GNOMAD_E]);
+    double mafSubpopExome = parseFrequency(f[GENO_GNOMAD_E + subpopColumn]);
+    double mafGenome = parseFrequency(f[GENO_GNOMAD_G]);
+    double mafSubpopGenome = parseFrequency(f[GENO_GNOMAD_G + subpopColumn]);
+    int csq = parseConsequence(f[GENO_CSQ]);
+
+    if(!passes(mafExome, mafSubpopExome, mafGenome, mafSubpopGenome, csq, maxMAF, maxMAFSubpop, minCSQ))
       return null;
 
+    StringBuilder res = new StringBuilder();
+    res.append(hasher.hash(f[GENO_VARIANT]));
+    String hashedGene = hasher.hashGene(f[GENO_GENE]);
+    res.append(T);
+    res.append(hashedGene);
+    for (int i : order) {
+      res.append(T);
+      res.append(f[i]);
+    }
+    return res.toString();
+  }
+
+  /**
+   * Checks, from the summary statistics of a block of a Genotypes Store, if at least one of its lines may pass a set of filters.
+   * The blocks that can't are skipped without being read
+   *
+   * @param block         the index entry of the block
+   * @param maxMAF        the maximum GnomAD_AF allowed
+   * @param subpopColumn  the column of the selected GnomAD subpopulation
+   * @param maxMAFSubpop  the maximum GnomAD_Subpop_AF allowed
+   * @param minCSQ        the least severe consequence allowed
+   * @param limitToSNVs   is the extraction limited to SNVs ?
+   * @param bed           list of all well covered positions
+   * @return              false if no line of the block can pass the filters
+   */
+  static boolean mayPass(GenotypesStoreReader.BlockInfo block, double maxMAF, int subpopColumn, double maxMAFSubpop, int minCSQ, boolean limitToSNVs, BedFile bed) {
+    if(block.getMaxConsequence() < minCSQ)
+      return false;
+    if(limitToSNVs && block.getNbSNVs() == 0)
+      return false;
+    if(getMinFrequency(block, GENO_GNOMAD_E) > maxMAF || getMinFrequency(block, GENO_GNOMAD_G) > maxMAF)
+      return false;
+    if(getMinFrequency(block, GENO_GNOMAD_E + subpopColumn) > maxMAFSubpop || getMinFrequency(block, GENO_GNOMAD_G + subpopColumn) > maxMAFSubpop)
+      return false;
+    //the variants of a block on a single chromosome are all within [firstPos-1 ; maxEnd]
+    return bed.isEmpty() || block.getFirstChrom() != block.getLastChrom() || bed.overlapsRange(block.getFirstChrom(), block.getFirstPos() - 1, block.getMaxEnd());
+  }
+
+  /**
+   * Gets the smallest frequency of a column in a block of a Genotypes Store
+   *
+   * @param block  the index entry of the block
+   * @param column the column in the Genotype File
+   * @return the smallest frequency, or -infinity if the column is not a frequency (unknown subpopulation)
+   */
+  private static double getMinFrequency(GenotypesStoreReader.BlockInfo block, int column) {
+    if (column >= GENO_GNOMAD_E && column < GENO_GENOTYPES)
+      return block.getMinFrequency(column - GENO_GNOMAD_E);
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Checks if a line from a block of a Genotypes Store passes a set of filters (same result as for the line of the Genotype File).
+   * Only the annotations of the block are needed
+   *
+   * @param block         the block of the Genotypes Store
+   * @param line          the line in the block
+   * @param maxMAF        the maximum GnomAD_AF allowed
+   * @param subpopColumn  the column of the selected GnomAD subpopulation
+   * @param maxMAFSubpop  the maximum GnomAD_Subpop_AF allowed
+   * @param minCSQ        the least severe consequence allowed
+   * @param limitToSNVs   is the extraction limited to SNVs ?
+   * @param bed           list of all well covered positions
+   * @return              true if the line passes the filters
+   */
+  static boolean passes(GenotypesBlock block, int line, double maxMAF, int subpopColumn, double maxMAFSubpop, int minCSQ, boolean limitToSNVs, BedFile bed) {
+    if((limitToSNVs || !bed.isEmpty()) && !isInScope(new CanonicalVariant(block.getVariant(line)), limitToSNVs, bed))
+      return false;
+
+    double mafExome = getFrequency(block, line, GENO_GNOMAD_E);
+    double mafSubpopExome = getFrequency(block, line, GENO_GNOMAD_E + subpopColumn);
+    double mafGenome = getFrequency(block, line, GENO_GNOMAD_G);
+    double mafSubpopGenome = getFrequency(block, line, GENO_GNOMAD_G + subpopColumn);
+
+    return passes(mafExome, mafSubpopExome, mafGenome, mafSubpopGenome, block.getConsequence(line), maxMAF, maxMAFSubpop, minCSQ);
+  }
+
+  /**
+   * Extracts and Hashed a line from a block of a Genotypes Store, that passes the filters (same result as for the line of the Genotype File)
+   * The genotypes of the block must have been read
+   *
+   * @param block         the block of the Genotypes Store
+   * @param line          the line in the block
+   * @param hasher        the hasher, with the hash salt
+   * @param order         the new order of the samples columns (the samples are shuffled)
+   * @return              the hashed extracted line
+   */
+  static String extractLine(GenotypesBlock block, int line, Crypto.Hasher hasher, int[] order) {
+    StringBuilder res = new StringBuilder();
+    res.append(hasher.hash(block.getVariant(line)));
+    res.append(T);
+    res.append(hasher.hashGene(block.getGene(line)));
+    for (int i : order) {
+      res.append(T);
+      res.append(GENOTYPES[block.getGenotype(line, i - GENO_GENOTYPES) + 1]);
+    }
+    return res.toString();
+  }
+
+  /**
+   * Gets a frequency from a block of a Genotypes Store, as it would be parsed from the column of the Genotype File
+   * (the column is outside of the frequencies for an unknown subpopulation)
+   *
+   * @param block  the block of the Genotypes Store
+   * @param line   the line in the block
+   * @param column the column in the Genotype File
+   * @return the frequency
+   */
+  private static double getFrequency(GenotypesBlock block, int line, int column) {
+    if (column >= GENO_GNOMAD_E && column < GENO_GENOTYPES)
+      return block.getFrequency(line, column - GENO_GNOMAD_E);
+    if (column >= GENO_GENOTYPES)
+      return block.getGenotype(line, column - GENO_GENOTYPES);
+    if (column == GENO_CSQ)
+      return block.getConsequence(line);
+    if (column == GENO_GENE)
+      return parseFrequency(block.getGene(line));
+    return parseFrequency(block.getVariant(line));
+  }
+
+  /**
+   * Checks if a variant is in the scope of the extraction
+   *
+   * @param canonicalVariant the variant
+   * @param limitToSNVs      is the extraction limited to SNVs ?
+   * @param bed              list of all well covered positions
+   * @return true if the variant is a SNV (or if the extraction is not limited to SNVs), and is within the bed (if any)
+   */
+  private static boolean isInScope(CanonicalVariant canonicalVariant, boolean limitToSNVs, BedFile bed) {
+    if(limitToSNVs && !canonicalVariant.isSNV())
+      return false;
+
     //DONE pass excluded list to TPS has hashed. And ignore there, so as not to leak data
     //1) Client does not fetch exclusion list from server
     //2) Client send AES(list(hash(excludedClient))) with the data
@@ -580,49 +771,170 @@ public class GenotypesFileHandler {
     //4) TPS merges list(excludedClient)+list(excludedRPP)
     //5) TPS ignores variants that belong in the list
 
+    return bed.isEmpty() || bed.overlaps(canonicalVariant);//DONE overlaps or contains ? maybe the whole position must be contained ? -> overlaps should be enough, for indels it would be to complicated ... also if bed is empty every position is kept
+  }
 
-    if(!bed.isEmpty() && !bed.overlaps(canonicalVariant))//DONE overlaps or contains ? maybe the whole position must be contained ? -> overlaps should be enough, for indels it would be to complicated ... also if bed is empty every position is kept
-      return null;
-
-    double mafExome = 0;
-    double mafSubpopExome = 0;
-    double mafGenome = 0;
-    double mafSubpopGenome = 0;
-
-    try { mafExome = Double.parseDouble(f[GENO_GNOMAD_E]); } catch (NumberFormatException ignore) { }
-
-    try { mafSubpopExome = Double.parseDouble(f[GENO_GNOMAD_E + subpopColumn]); } catch (NumberFormatException ignore) { }
-
-    try { mafGenome = Double.parseDouble(f[GENO_GNOMAD_G]); } catch (NumberFormatException ignore) { }
+  /**
+   * Checks if a variant passes the frequency and consequence filters
+   *
+   * @param mafExome        the GnomAD exome AF
+   * @param mafSubpopExome  the GnomAD exome AF of the selected subpopulation
+   * @param mafGenome       the GnomAD genome AF
+   * @param mafSubpopGenome the GnomAD genome AF of the selected subpopulation
+   * @param csq             the consequence of the variant
+   * @param maxMAF          the maximum GnomAD_AF allowed
+   * @param maxMAFSubpop    the maximum GnomAD_Subpop_AF allowed
+   * @param minCSQ          the least severe consequence allowed
+   * @return true if the variant passes the filters
+   */
+  private static boolean passes(double mafExome, double mafSubpopExome, double mafGenome, double mafSubpopGenome, int csq, double maxMAF, double maxMAFSubpop, int minCSQ) {
+    //DONE: AND or OR ??? ---> here it's AND
+    if(csq < minCSQ)
+      return false;
+    if(mafExome > maxMAF || mafGenome > maxMAF)
+      return false;
+    return mafSubpopExome <= maxMAFSubpop && mafSubpopGenome <= maxMAFSubpop;
+  }
 
-    try { mafSubpopGenome = Double.parseDouble(f[GENO_GNOMAD_G + subpopColumn]); } catch (NumberFormatException ignore) { }
+  /**
+   * Parses a GnomAD frequency from a Genotype File
+   *
+   * @param value the value of the column
+   * @return the frequency, 0 if the value is not a number
+   */
+  private static double parseFrequency(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException ignore) {
+      return 0;
+    }
+  }
 
-    int csq = -1;
+  /**
+   * Parses a consequence level from a Genotype File
+   *
+   * @param value the value of the column
+   * @return the consequence level, -1 if the value is not a number
+   */
+  private static int parseConsequence(String value) {
     try {
-      csq = Integer.parseInt(f[GENO_CSQ]);
+      return Integer.parseInt(value);
     } catch (NumberFormatException ignore) {
-      //ignore
+      return -1;
     }
+  }
 
-    //DONE: AND or OR ??? ---> here it's AND
+  /**
+   * Gets the name of the Genotypes Store associated to a Genotype File
+   *
+   * @param genotypeFilename the name of the Genotype File
+   * @return the name of the Genotypes Store
+   */
+  public static String getGenotypesStoreFilename(String genotypeFilename) {
+    return genotypeFilename + "." + FileFormat.FILE_GENO_STORE_EXTENSION;
+  }
 
-    if(csq < minCSQ)
-      return null;
-    if(mafExome > maxMAF || mafGenome > maxMAF)
-      return null;
-    if(mafSubpopExome > maxMAFSubpop || mafSubpopGenome > maxMAFSubpop)
+  /**
+   * Opens the Genotypes Store associated to a Genotype File
+   * If the store doesn't exist, or if it was not built from the current Genotype File (size and modification date recorded in the store), it is (re)built
+   *
+   * @param genotypeFilename the name of the Genotype File
+   * @param instance         the instance that will log events
+   * @return the Genotypes Store, null if it can't be built or read
+   */
+  private static GenotypesStoreReader openGenotypesStore(String genotypeFilename, Instance instance) {
+    File store = new File(getGenotypesStoreFilename(genotypeFilename));
+    File source = new File(genotypeFilename);
+    try {
+      if (!store.exists())
+        buildGenotypesStore(genotypeFilename);
+      else
+        try {
+          GenotypesStoreReader reader = new GenotypesStoreReader(store.getPath());
+          if (reader.getSourceSize() == source.length() && reader.getSourceDate() == source.lastModified())
+            return reader;
+          reader.close();
+          instance.logWarning(MSG.cat(MSG.GNFH_STORE_OUTDATED, store.getPath()));
+          buildGenotypesStore(genotypeFilename);
+        } catch (IOException e) {
+          //the store has been written by a previous version, or is damaged
+          instance.logWarning(MSG.cat(MSG.GNFH_STORE_REBUILD, e));
+          buildGenotypesStore(genotypeFilename);
+        }
+      return new GenotypesStoreReader(store.getPath());
+    } catch (IOException e) {
+      instance.logWarning(MSG.cat(MSG.GNFH_STORE_UNAVAILABLE, e));
       return null;
+    }
+  }
 
-    StringBuilder res = new StringBuilder();
-    res.append(Crypto.hashSHA256(hash, f[GENO_VARIANT]));
-    String hashedGene = Crypto.hashSHA256(hash, f[GENO_GENE]);
-    res.append(T);
-    res.append(hashedGene);
-    for (Integer i : order) {
-      res.append(T);
-      res.append(f[i]);
+  /**
+   * Builds the Genotypes Store associated to a Genotype File : binary, block-compressed version of the Genotype File,
+   * that is read by the extraction without parsing text.
+   * The store is written to a temporary file that replaces the previous store once complete
+   *
+   * @param genotypeFilename the name of the Genotype File
+   * @throws IOException if an I/O error occurs, or if a line of the Genotype File can't be stored
+   */
+  public static void buildGenotypesStore(String genotypeFilename) throws IOException {
+    File store = new File(getGenotypesStoreFilename(genotypeFilename)).getAbsoluteFile();
+    //recorded before reading, so that a Genotype File modified in the meantime doesn't match the store
+    File source = new File(genotypeFilename);
+    long sourceSize = source.length();
+    long sourceDate = source.lastModified();
+    UniversalReader in = new UniversalReader(genotypeFilename);
+    File tmp = File.createTempFile(store.getName() + ".", ".tmp", store.getParentFile());
+    boolean complete = false;
+    GenotypesStoreWriter out = null;
+    try {
+      String line;
+      while ((line = in.readLine()) != null)
+        if (!line.startsWith("#")) {
+          String[] f = line.split(T);
+          if (out == null)
+            out = new GenotypesStoreWriter(tmp.getAbsolutePath(), f.length - GENO_GENOTYPES, sourceSize, sourceDate);
+          double[] frequencies = new double[GenotypesStoreWriter.NB_FREQUENCIES];
+          for (int i = 0; i < frequencies.length; i++)
+            frequencies[i] = parseFrequency(f[GENO_GNOMAD_E + i]);
+          int[] genotypes = new int[f.length - GENO_GENOTYPES];
+          for (int i = 0; i < genotypes.length; i++)
+            genotypes[i] = parseGenotype(f[GENO_GENOTYPES + i]);
+          out.add(f[GENO_VARIANT], parseConsequence(f[GENO_CSQ]), f[GENO_GENE], frequencies, genotypes);
+        }
+      if (out == null)
+        out = new GenotypesStoreWriter(tmp.getAbsolutePath(), 0, sourceSize, sourceDate);
+      out.close();
+      Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      complete = true;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_SAMPLES, genotypeFilename), e);
+    } finally {
+      in.close();
+      if (!complete) {
+        if (out != null)
+          try {
+            out.close();
+          } catch (IOException ignore) {
+            //ignore
+          }
+        //noinspection ResultOfMethodCallIgnored
+        tmp.delete();
+      }
     }
-    return res.toString();
+  }
+
+  /**
+   * Parses a genotype from a Genotype File
+   *
+   * @param value the value of the column
+   * @return the genotype (0, 1 or 2; -1 for missing data)
+   * @throws IOException if the value is not one of the values written in the Genotype Files
+   */
+  private static int parseGenotype(String value) throws IOException {
+    for (int g = 0; g < GENOTYPES.length; g++)
+      if (GENOTYPES[g].equals(value))
+        return g - 1;
+    throw new IOException(MSG.cat(MSG.GNFH_STORE_GENOTYPE, value));
   }
 
   /**
@@ -635,7 +947,8 @@ public class GenotypesFileHandler {
    */
   public static HashAndPosition buildHashDictionaryAndPosition(String genotypeFilename, String hash) throws IOException {
     HashAndPosition hashPos = new HashAndPosition();
-    ArrayList<String> genes = new ArrayList<>();
+    Crypto.Hasher hasher = new Crypto.Hasher(hash);
+    HashSet<String> genes = new HashSet<>();
     UniversalReader in = new UniversalReader(genotypeFilename);
     String line;
     while ((line = in.readLine()) != null)
@@ -643,10 +956,8 @@ public class GenotypesFileHandler {
         String[] f = line.split(T);
         String gene = f[GENO_GENE];
         String pos = f[GENO_VARIANT];
-        if (!genes.contains(gene)) {
-          genes.add(0, gene);
-          hashPos.add(gene, Crypto.hashSHA256(hash, gene), pos);
-        }
+        if (genes.add(gene))
+          hashPos.add(gene, hasher.hash(gene), pos);
       }
     in.close();
     return hashPos;
@@ -665,6 +976,7 @@ public class GenotypesFileHandler {
     UniversalReader in = new UniversalReader(inputFilename);
     PrintWriter out = new PrintWriter(new FileWriter(variantOutputFilename));
     SortedSet<String> genes = new TreeSet<>();
+    Crypto.Hasher hasher = new Crypto.Hasher(hashKey);
 
     int idxGene = -1;
     String vepString = null;
@@ -696,7 +1008,7 @@ public class GenotypesFileHandler {
         String prefix = String.join(T, f[VCF_CHR], f[VCF_POS], f[VCF_ID], f[VCF_REF]);
         for (String alt :  f[VCF_ALT].split(",")) {
           String canon = new CanonicalVariant(f[VCF_CHR], f[VCF_POS], f[VCF_REF], alt).toString();
-          String hashed = Crypto.hashSHA256(hashKey, canon);
+          String hashed = hasher.hash(canon);
           out.println(String.join(T, prefix, alt, canon, hashed));
         }
         for (String info : f[VCF_INFO].split(";")) {
@@ -712,7 +1024,7 @@ public class GenotypesFileHandler {
     out.close();
     out = new PrintWriter(new FileWriter(geneOutputFilename));
     for(String gene : genes)
-      out.println(gene + T + Crypto.hashSHA256(hashKey, gene));
+      out.println(gene + T + hasher.hash(gene));
     out.close();
   }
 
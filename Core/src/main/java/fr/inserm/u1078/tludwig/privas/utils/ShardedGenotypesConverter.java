@@ -0,0 +1,420 @@
+package fr.inserm.u1078.tludwig.privas.utils;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADAnnotationService;
+import fr.inserm.u1078.tludwig.privas.utils.binary.GnomADSweep;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Region-sharded conversion of a VCF file to a Genotype File <br/>
+ * The VCF file (plain text or bgzipped) is cut in shards of about the same size, that are converted independently and in parallel,
+ * each shard in its own temporary gzipped file, with its own GnomAD Sweep. The temporary files are then concatenated (as gzip members) in the order of the VCF file. <br/>
+ * A line belongs to the shard containing its first byte. Shards start at any byte for plain text files, and at the start of a BGZF block for bgzipped files :
+ * the offsets of the blocks are read from their headers, so no index (.tbi) is needed.
+ * Plain gzipped files cannot be cut, and are converted by GenotypesConverter.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class ShardedGenotypesConverter {
+  /**
+   * Number of shards for each worker, so that the workers finish at the same time
+   */
+  private static final int SHARDS_PER_WORKER = 4;
+  /**
+   * Minimum size of a shard (compressed bytes)
+   */
+  private static final long MIN_SHARD_SIZE = 1 << 20;
+  /**
+   * The progress is logged every STEP lines written
+   */
+  private static final int STEP = 10000;
+
+  private static final int GZIP_ID1 = 0x1f;
+  private static final int GZIP_ID2 = 0x8b;
+  private static final int GZIP_FEXTRA = 4;
+  private static final int BGZF_SI1 = 'B';
+  private static final int BGZF_SI2 = 'C';
+
+  private final String vcfFilename;
+  private final int[] indices;
+  private final GnomADAnnotationService gnomAD;
+  private final Instance log;
+  private final int workers;
+  private final AtomicLong converted = new AtomicLong();
+
+  /**
+   * Prepares the conversion
+   *
+   * @param vcfFilename the VCF file (plain text or bgzipped)
+   * @param idxCsq      index of the Consequence value in the vep annotations
+   * @param idxGene     index of the SYMBOL value in the vep annotations
+   * @param idxSource   index of the SYMBOL_SOURCE value in the vep annotations
+   * @param idxAN       index of the ALLELE_NUM value in the vep annotations
+   * @param gnomAD      the GnomAD annotation service
+   * @param log         the instance that will log events
+   * @param workers     the number of shards converted at the same time
+   */
+  ShardedGenotypesConverter(String vcfFilename, int idxCsq, int idxGene, int idxSource, int idxAN, GnomADAnnotationService gnomAD, Instance log, int workers) {
+    this.vcfFilename = vcfFilename;
+    this.indices = new int[]{idxCsq, idxGene, idxSource, idxAN};
+    this.gnomAD = gnomAD;
+    this.log = log;
+    this.workers = workers;
+  }
+
+  /**
+   * Can the file be cut in shards (plain text or bgzipped) ?
+   *
+   * @param filename the name of the file
+   * @return true if the file is in plain text or bgzipped
+   * @throws IOException if an I/O error occurs while reading the file
+   */
+  static boolean isSplittable(String filename) throws IOException {
+    try (FileChannel channel = new FileInputStream(filename).getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(18);
+      channel.read(header, 0);
+      return !isGzip(header) || isBGZF(header);
+    }
+  }
+
+  private static boolean isGzip(ByteBuffer header) {
+    return header.position() >= 2 && (header.get(0) & 0xFF) == GZIP_ID1 && (header.get(1) & 0xFF) == GZIP_ID2;
+  }
+
+  /**
+   * Is this the header of a BGZF block (gzip member with an extra field "BC" of length 2) ?
+   *
+   * @param header the first 18 bytes of the block
+   * @return true if the header is the header of a BGZF block
+   */
+  private static boolean isBGZF(ByteBuffer header) {
+    return header.position() >= 18 && isGzip(header)
+        && (header.get(3) & GZIP_FEXTRA) != 0
+        && (header.get(12) & 0xFF) == BGZF_SI1 && (header.get(13) & 0xFF) == BGZF_SI2;
+  }
+
+  /**
+   * Gets the compressed and uncompressed offsets of the BGZF blocks, from the headers (block size) and footers (uncompressed size) of the blocks
+   *
+   * @param channel the bgzipped file
+   * @return {compressed offsets, uncompressed offsets}, with the size of the file as a last value
+   * @throws IOException if an I/O error occurs, or if a block is not a BGZF block
+   */
+  private static long[][] scanBlocks(FileChannel channel) throws IOException {
+    long size = channel.size();
+    long[] compressed = new long[1024];
+    long[] uncompressed = new long[1024];
+    int nb = 0;
+    long c = 0;
+    long u = 0;
+    ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer footer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    while (c < size) {
+      header.clear();
+      channel.read(header, c);
+      if (!isBGZF(header))
+        throw new IOException(MSG.cat(MSG.GNFH_NOT_BGZF, c));
+      long blockSize = (header.getShort(16) & 0xFFFF) + 1;
+      footer.clear();
+      channel.read(footer, c + blockSize - 4);
+      if (nb + 1 >= compressed.length) {
+        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+        uncompressed = Arrays.copyOf(uncompressed, 2 * uncompressed.length);
+      }
+      compressed[nb] = c;
+      uncompressed[nb] = u;
+      nb++;
+      c += blockSize;
+      u += footer.getInt(0) & 0xFFFFFFFFL;
+    }
+    compressed[nb] = c;
+    uncompressed[nb] = u;
+    return new long[][]{Arrays.copyOf(compressed, nb + 1), Arrays.copyOf(uncompressed, nb + 1)};
+  }
+
+  /**
+   * Cuts the file in shards
+   *
+   * @return the shards, in the order of the file
+   * @throws IOException if an I/O error occurs while reading the file
+   */
+  private ArrayList<Shard> getShards() throws IOException {
+    ArrayList<Shard> shards = new ArrayList<>();
+    try (FileChannel channel = new FileInputStream(vcfFilename).getChannel()) {
+      long size = channel.size();
+      long shardSize = Math.max(MIN_SHARD_SIZE, size / ((long) workers * SHARDS_PER_WORKER) + 1);
+      ByteBuffer header = ByteBuffer.allocate(18);
+      channel.read(header, 0);
+      if (!isGzip(header)) {
+        for (long start = 0; start < size; start += shardSize)
+          shards.add(new Shard(shards.size(), false, Math.max(0, start - 1), Math.max(0, start - 1), start, Math.min(size, start + shardSize)));
+        return shards;
+      }
+
+      long[][] blocks = scanBlocks(channel);
+      long[] compressed = blocks[0];
+      long[] uncompressed = blocks[1];
+      int first = 0;
+      for (int b = 1; b < compressed.length; b++)
+        if (b == compressed.length - 1 || compressed[b] - compressed[first] >= shardSize) {
+          //seeks to the previous block, to find out if the shard starts with a new line
+          int seek = Math.max(0, first - 1);
+          shards.add(new Shard(shards.size(), true, compressed[seek], uncompressed[seek], uncompressed[first], uncompressed[b]));
+          first = b;
+        }
+    }
+    return shards;
+  }
+
+  /**
+   * Converts the variants
+   *
+   * @param genotypeFilename the Genotype File, the converted shards are appended to it
+   * @return the number of lines written in the Genotype File
+   * @throws IOException                                if an I/O error occurs while reading the VCF file or the GnomAD File
+   * @throws GenotypesFileHandler.GenotypeFileException if a line doesn't have a VEP annotation
+   */
+  long convert(String genotypeFilename) throws IOException, GenotypesFileHandler.GenotypeFileException {
+    ArrayList<Shard> shards = getShards();
+    ExecutorService threadPool = Executors.newFixedThreadPool(workers);
+    ArrayList<Future<Long>> results = new ArrayList<>();
+    for (Shard shard : shards)
+      results.add(threadPool.submit(() -> shard.convert(genotypeFilename)));
+    threadPool.shutdown();
+
+    long nbLines = 0;
+    try (OutputStream out = new FileOutputStream(genotypeFilename, true)) {
+      for (int i = 0; i < shards.size(); i++) {
+        nbLines += results.get(i).get();
+        File tmp = shards.get(i).getFile(genotypeFilename);
+        Files.copy(tmp.toPath(), out);
+        Files.delete(tmp.toPath());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      threadPool.shutdownNow();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      threadPool.shutdownNow();
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      if (e.getCause() instanceof GenotypesFileHandler.GenotypeFileException)
+        throw (GenotypesFileHandler.GenotypeFileException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Shard shard : shards)
+        //noinspection ResultOfMethodCallIgnored
+        shard.getFile(genotypeFilename).delete();
+    }
+    return nbLines;
+  }
+
+  /**
+   * Logs the progress every STEP lines
+   *
+   * @param nb the number of lines just converted
+   */
+  private void progress(int nb) {
+    long total = converted.addAndGet(nb);
+    if (total / STEP != (total - nb) / STEP)
+      log.logInfo(MSG.cat(MSG.GNFH_CONVERTED_LINES, total));
+  }
+
+  /**
+   * Part of the VCF file : the lines starting in [start;end[ (uncompressed offsets)
+   */
+  private class Shard {
+    private final int n;
+    private final boolean bgzf;
+    /**
+     * compressed offset where the reading starts
+     */
+    private final long seek;
+    /**
+     * uncompressed offset where the reading starts
+     */
+    private final long seekUncompressed;
+    private final long start;
+    private final long end;
+
+    Shard(int n, boolean bgzf, long seek, long seekUncompressed, long start, long end) {
+      this.n = n;
+      this.bgzf = bgzf;
+      this.seek = seek;
+      this.seekUncompressed = seekUncompressed;
+      this.start = start;
+      this.end = end;
+    }
+
+    File getFile(String genotypeFilename) {
+      return new File(genotypeFilename + ".shard" + n);
+    }
+
+    /**
+     * Converts the lines of the shard to a temporary file
+     *
+     * @param genotypeFilename the Genotype File
+     * @return the number of lines written
+     * @throws IOException                                if an I/O error occurs
+     * @throws GenotypesFileHandler.GenotypeFileException if a line doesn't have a VEP annotation
+     */
+    long convert(String genotypeFilename) throws IOException, GenotypesFileHandler.GenotypeFileException {
+      GnomADSweep sweep = gnomAD.newSweep();
+      long nbLines = 0;
+      FileInputStream fis = new FileInputStream(vcfFilename);
+      fis.getChannel().position(seek);
+      LineReader in = new LineReader(bgzf ? new GZIPInputStream(new BufferedInputStream(fis, 1 << 16), 1 << 16) : fis, seekUncompressed);
+      try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(getFile(genotypeFilename))), StandardCharsets.UTF_8))) {
+        //the line that starts before the shard belongs to the previous shard
+        if (start > 0) {
+          in.skipTo(start - 1);
+          if (in.read() != '\n')
+            in.readLine();
+        }
+        StringBuilder sb = new StringBuilder();
+        String line;
+        int nb = 0;
+        while (in.getPosition() < end && (line = in.readLine()) != null) {
+          if (line.isEmpty() || line.startsWith("#"))
+            continue;
+          nb += GenotypesFileHandler.convertLine2Genotypes(line, indices[0], indices[1], indices[2], indices[3], sweep, sb);
+          if (sb.length() > 1 << 16) {
+            out.print(sb);
+            sb.setLength(0);
+          }
+          if (nb >= 1000) {
+            nbLines += nb;
+            progress(nb);
+            nb = 0;
+          }
+        }
+        out.print(sb);
+        nbLines += nb;
+        progress(nb);
+      } finally {
+        in.close();
+      }
+      return nbLines;
+    }
+  }
+
+  /**
+   * Reads lines from a stream, keeping track of the (uncompressed) offset
+   */
+  private static class LineReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int next = 0;
+    private int limit = 0;
+    /**
+     * offset of buffer[0] in the (uncompressed) file
+     */
+    private long bufferPosition;
+    private byte[] line = new byte[1 << 12];
+
+    LineReader(InputStream in, long position) {
+      this.in = in;
+      this.bufferPosition = position;
+    }
+
+    long getPosition() {
+      return bufferPosition + next;
+    }
+
+    /**
+     * @return false at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean fill() throws IOException {
+      bufferPosition += limit;
+      next = 0;
+      limit = 0;
+      int read;
+      while ((read = in.read(buffer)) == 0)
+        ;
+      if (read == -1)
+        return false;
+      limit = read;
+      return true;
+    }
+
+    int read() throws IOException {
+      if (next == limit && !fill())
+        return -1;
+      return buffer[next++] & 0xFF;
+    }
+
+    void skipTo(long target) throws IOException {
+      while (getPosition() < target) {
+        if (next == limit && !fill())
+          return;
+        next += (int) Math.min(limit - next, target - getPosition());
+      }
+    }
+
+    /**
+     * Reads a line (the line terminator "\n" or "\r\n" is removed)
+     *
+     * @return the line, or null at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    String readLine() throws IOException {
+      int length = 0;
+      boolean eol = false;
+      while (!eol) {
+        if (next == limit && !fill()) {
+          if (length == 0)
+            return null;
+          break;
+        }
+        int from = next;
+        while (next < limit && buffer[next] != '\n')
+          next++;
+        int n = next - from;
+        if (length + n > line.length)
+          line = Arrays.copyOf(line, Math.max(2 * line.length, length + n));
+        System.arraycopy(buffer, from, line, length, n);
+        length += n;
+        if (next < limit) {
+          next++; //skip \n
+          eol = true;
+        }
+      }
+      if (length > 0 && line[length - 1] == '\r')
+        length--;
+      return new String(line, 0, length, Charset.defaultCharset());
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -1,9 +1,11 @@
 package fr.inserm.u1078.tludwig.privas.utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.zip.GZIPInputStream;
 
@@ -37,6 +39,23 @@ public class UniversalReader {
     in = tmp;
   }
 
+  /**
+   * Opens a file as a stream of bytes, uncompressed if the file is gzipped
+   *
+   * @param filename the name of the file to read
+   * @return the InputStream of the (uncompressed) content of the file
+   * @throws IOException If an I/O error occurs
+   */
+  public static InputStream getInputStream(String filename) throws IOException {
+    FileInputStream fis = new FileInputStream(filename);
+    try {
+      return new GZIPInputStream(new BufferedInputStream(fis));
+    } catch (IOException e) {
+      fis.close();
+      return new BufferedInputStream(new FileInputStream(filename));
+    }
+  }
+
   /**
    * Reads a line of text. A line is considered to be terminated by any one of a line feed ('\n'), a carriage return ('\r'), or a carriage return followed
    * immediately by a linefeed.
@@ -22,12 +22,13 @@ public class VariantExclusionSet {
   }
   
   public void load(String filename, String hashKey) throws IOException {
+    Crypto.Hasher hasher = new Crypto.Hasher(hashKey);
     UniversalReader in = new UniversalReader(filename);
     String line;
     while((line = in.readLine()) != null)
       if(!line.startsWith("#")){
         String[] f = line.split("\t", -1);
-        this.add(Crypto.hashSHA256(hashKey, f[0]));
+        this.add(hasher.hash(f[0]));
       }
     in.close();
   }
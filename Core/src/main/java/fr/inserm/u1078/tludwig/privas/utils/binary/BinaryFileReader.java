@@ -3,7 +3,6 @@ package fr.inserm.u1078.tludwig.privas.utils.binary;
 import fr.inserm.u1078.tludwig.privas.constants.MSG;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 
 /**
  * Class to Read from Binary Files
@@ -15,27 +14,84 @@ import java.nio.ByteBuffer;
  */
 public class BinaryFileReader {
   public static final char DELIMITER = '*';
+  /**
+   * size of the backing buffer
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
 
   private final String filename;
-  private final BufferedInputStream in;
+  private final FileInputStream in;
+  /**
+   * backing buffer, reused for the whole file : the primitives are decoded directly from it
+   */
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  /**
+   * position of the next byte to read in the buffer
+   */
+  private int position = 0;
+  /**
+   * number of valid bytes in the buffer
+   */
+  private int limit = 0;
   private long bytesRead = 0;
 
   public BinaryFileReader(String filename) throws FileNotFoundException {
     this.filename = filename;
-    in = new BufferedInputStream(new FileInputStream(filename));
+    in = new FileInputStream(filename);
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   public BinaryFileReader(String filename, long offset) throws IOException {
     this.filename = filename;
-    in = new BufferedInputStream(new FileInputStream(filename));
-    in.skip(offset);
+    in = new FileInputStream(filename);
+    in.getChannel().position(offset);
+  }
+
+  /**
+   * Refills the buffer, keeping the unread bytes
+   *
+   * @param needed the number of contiguous bytes needed in the buffer
+   * @throws IOException if an I/O error occurs or if the end of the file is reached before the needed bytes
+   */
+  private void fill(int needed) throws IOException {
+    int remaining = limit - position;
+    System.arraycopy(buffer, position, buffer, 0, remaining);
+    position = 0;
+    limit = remaining;
+    while (limit < needed) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        in.close();
+        throw new EOFException(MSG.cat(MSG.BIN_EOF, this.getFilename()));
+      }
+      limit += read;
+    }
+  }
+
+  /**
+   * Ensures that the next n bytes are in the buffer, and moves after them
+   *
+   * @param n the number of bytes (at most BUFFER_SIZE)
+   * @return the position of the first of these bytes in the buffer
+   * @throws IOException if an I/O error occurs or if the end of the file is reached
+   */
+  private int advance(int n) throws IOException {
+    if (limit - position < n)
+      fill(n);
+    int p = position;
+    position += n;
+    bytesRead += n;
+    return p;
   }
 
   public void read(byte[] b) throws IOException {
-    if(in.read(b) == -1) {
-      in.close();
-      throw new EOFException(MSG.cat(MSG.BIN_EOF, this.getFilename()));
+    int done = 0;
+    while (done < b.length) {
+      if (position == limit)
+        fill(1);
+      int n = Math.min(b.length - done, limit - position);
+      System.arraycopy(buffer, position, b, done, n);
+      position += n;
+      done += n;
     }
     this.bytesRead += b.length;
   }
@@ -47,12 +103,13 @@ public class BinaryFileReader {
   }
 
   public int readInt1() throws IOException {
-    return read(1)[0] & 0xFF;
+    return buffer[advance(1)] & 0xFF;
   }
 
   @SuppressWarnings("unused")
   public int readInt2() throws IOException {
-    return ByteBuffer.wrap(read(2)).getShort();
+    int p = advance(2);
+    return (short) ((buffer[p] << 8) | (buffer[p + 1] & 0xFF));
   }
 
   public int readInt1or2() throws IOException {
@@ -63,29 +120,36 @@ public class BinaryFileReader {
   }
 
   public int readInt4() throws IOException {
-    return ByteBuffer.wrap(read(4)).getInt();
+    int p = advance(4);
+    return (buffer[p] << 24) | ((buffer[p + 1] & 0xFF) << 16) | ((buffer[p + 2] & 0xFF) << 8) | (buffer[p + 3] & 0xFF);
   }
 
   public long readLong8() throws IOException {
-    return ByteBuffer.wrap(read(8)).getLong();
+    int p = advance(8);
+    long l = 0;
+    for (int i = 0; i < 8; i++)
+      l = (l << 8) | (buffer[p + i] & 0xFF);
+    return l;
   }
 
   public double readDouble3() throws IOException {
-    return decodeDouble0to1(read(3));
+    int p = advance(3);
+    return decodeDouble0to1(buffer[p] & 0xFF, buffer[p + 1] & 0xFF, buffer[p + 2] & 0xFF);
   }
 
   @SuppressWarnings("unused")
   public double readFloat4() throws IOException {
-    return ByteBuffer.wrap(read(4)).getFloat();
+    return Float.intBitsToFloat(readInt4());
   }
 
   @SuppressWarnings("unused")
   public double readDouble8() throws IOException {
-    return ByteBuffer.wrap(read(8)).getDouble();
+    return Double.longBitsToDouble(readLong8());
   }
 
   public char readChar() throws IOException {//encoded on 2 bytes and not 1, but string are very short
-    return ByteBuffer.wrap(read(2)).getChar();
+    int p = advance(2);
+    return (char) ((buffer[p] << 8) | (buffer[p + 1] & 0xFF));
   }
 
   public String readString() throws IOException {
@@ -99,14 +163,23 @@ public class BinaryFileReader {
   public static double decodeDouble0to1(byte[] bytes) {
     if(bytes.length != 3)
       throw new IllegalArgumentException(MSG.BIN_DOUBLE3_LENGTH);
+    return decodeDouble0to1(bytes[0] & 0xFF, bytes[1] & 0xFF, bytes[2] & 0xFF);
+  }
+
+  /**
+   * Decodes a double in [0;1] from its 3 unsigned bytes
+   * @param a the first byte
+   * @param b the second byte
+   * @param c the third byte
+   * @return the decoded double
+   */
+  public static double decodeDouble0to1(int a, int b, int c) {
     //double representation as y.yyyyyE-x
     //3 bytes -> int
     //4 bits on the right (%16 = 0-15) -> x
     //rest of int (/16) -> yyyyyy
-    int a = bytes[0] & 0xFF;
-
     int exp = a%16;
-    int sign = (a + 256*(bytes[1] & 0xFF) + 256*256*(bytes[2] & 0xFF))/16;
+    int sign = (a + 256*b + 256*256*c)/16;
 
     int div = 1;
     for(int i = 0; i < 5+exp; i++)
@@ -36,7 +36,6 @@ public class BinaryFileWriter {
     write(new byte[]{(byte)i});
   }
 
-  @SuppressWarnings("unused")
   public void writeInt2(int i) throws IOException {
     write(ByteBuffer.allocate(2).putShort((short)i).array());
   }
@@ -102,7 +101,6 @@ public class BinaryFileWriter {
     write(ByteBuffer.allocate(4).putFloat((float)d).array());
   }
 
-  @SuppressWarnings("unused")
   public void writeDouble(double d) throws IOException {
     write(ByteBuffer.allocate(8).putDouble(d).array());
   }
@@ -125,10 +123,8 @@ public class BinaryFileWriter {
     out.close();
   }
 
-  @SuppressWarnings("unused")
   public long getBytesWritten() { return bytesWritten; }
 
-  @SuppressWarnings("unused")
   public String getFilename() {
     return filename;
   }
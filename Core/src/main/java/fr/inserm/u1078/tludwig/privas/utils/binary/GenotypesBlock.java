@@ -0,0 +1,88 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+/**
+ * Decoded block of a Genotypes Store : the lines of the block, as primitive columns <br/>
+ * The genotypes are read separately ({@link GenotypesStoreReader#readGenotypes(GenotypesBlock)}), only when needed
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GenotypesBlock {
+  private final String[] variants;
+  private final int[] consequences;
+  private final String[] genes;
+  private final double[] frequencies;
+  private final long genotypesOffset;
+  private final int rowSize;
+  private byte[] genotypes;
+
+  GenotypesBlock(String[] variants, int[] consequences, String[] genes, double[] frequencies, long genotypesOffset, int rowSize) {
+    this.variants = variants;
+    this.consequences = consequences;
+    this.genes = genes;
+    this.frequencies = frequencies;
+    this.genotypesOffset = genotypesOffset;
+    this.rowSize = rowSize;
+    this.genotypes = null;
+  }
+
+  long getGenotypesOffset() {
+    return genotypesOffset;
+  }
+
+  void setGenotypes(byte[] genotypes) {
+    this.genotypes = genotypes;
+  }
+
+  /**
+   * @return the number of lines in the block
+   */
+  public int size() {
+    return variants.length;
+  }
+
+  /**
+   * @param line the line in the block
+   * @return the variant in canonical notation
+   */
+  public String getVariant(int line) {
+    return variants[line];
+  }
+
+  /**
+   * @param line the line in the block
+   * @return the consequence level
+   */
+  public int getConsequence(int line) {
+    return consequences[line];
+  }
+
+  /**
+   * @param line the line in the block
+   * @return the affected gene
+   */
+  public String getGene(int line) {
+    return genes[line];
+  }
+
+  /**
+   * @param line   the line in the block
+   * @param column the frequency column (0-11 GnomAD exome, 12-23 GnomAD genome)
+   * @return the GnomAD frequency
+   */
+  public double getFrequency(int line, int column) {
+    return frequencies[line * GenotypesStoreWriter.NB_FREQUENCIES + column];
+  }
+
+  /**
+   * @param line   the line in the block
+   * @param sample the index of the sample
+   * @return the genotype of the sample (0, 1 or 2; -1 for missing data)
+   * @throws NullPointerException if the genotypes of the block have not been read
+   */
+  public int getGenotype(int line, int sample) {
+    return ((genotypes[line * rowSize + (sample >> 2)] >> ((sample & 3) << 1)) & 3) - 1;
+  }
+}
@@ -0,0 +1,304 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader for Genotypes Stores (see {@link GenotypesStoreWriter} for the format) <br/>
+ * The footer (genes and index of the blocks) is read when the store is opened, the blocks are read on demand.
+ * Blocks are read with positional reads, so several threads can read blocks concurrently from the same instance.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GenotypesStoreReader {
+  private final String filename;
+  private final FileChannel channel;
+  private final int nbSamples;
+  private final long sourceSize;
+  private final long sourceDate;
+  private final int rowSize;
+  private final long nbLines;
+  private final String[] genes;
+  private final List<BlockInfo> blocks;
+
+  /**
+   * Opens a Genotypes Store
+   *
+   * @param filename the name of the Genotypes Store
+   * @throws IOException if the file is not a Genotypes Store, or if an I/O error occurs while reading the footer
+   */
+  public GenotypesStoreReader(String filename) throws IOException {
+    this.filename = filename;
+    this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if(size < 12)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_NOT_STORE, filename));
+      GnomADBlockCodec.Input header = new GnomADBlockCodec.Input(read(0, 8));
+      if(header.readInt4() != GenotypesStoreWriter.MAGIC)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_NOT_STORE, filename));
+      if(header.readInt4() != GenotypesStoreWriter.VERSION)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_VERSION, filename));
+      if(size < GenotypesStoreWriter.HEADER_SIZE + 12)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_NOT_STORE, filename));
+      header = new GnomADBlockCodec.Input(read(8, GenotypesStoreWriter.HEADER_SIZE - 8));
+      this.nbSamples = header.readInt4();
+      this.sourceSize = header.readLong8();
+      this.sourceDate = header.readLong8();
+      this.rowSize = GenotypesStoreWriter.getRowSize(nbSamples);
+
+      GnomADBlockCodec.Input trailer = new GnomADBlockCodec.Input(read(size - 12, 12));
+      long footer = trailer.readLong8();
+      if(trailer.readInt4() != GenotypesStoreWriter.MAGIC || footer < GenotypesStoreWriter.HEADER_SIZE || footer > size - 12)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_NOT_STORE, filename));
+
+      GnomADBlockCodec.Input in = new GnomADBlockCodec.Input(read(footer, (int)(size - 12 - footer)));
+      this.nbLines = in.readLong8();
+      this.genes = new String[in.readVarInt()];
+      for(int i = 0; i < genes.length; i++)
+        genes[i] = in.readString();
+      int nbBlocks = in.readVarInt();
+      ArrayList<BlockInfo> list = new ArrayList<>(nbBlocks);
+      for(int b = 0; b < nbBlocks; b++)
+        list.add(new BlockInfo(in));
+      this.blocks = Collections.unmodifiableList(list);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      if(e instanceof IOException)
+        throw e;
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename), e);
+    }
+  }
+
+  /**
+   * Reads bytes from the file, without moving the position of the channel
+   *
+   * @param offset the offset of the first byte
+   * @param length the number of bytes
+   * @return the bytes
+   * @throws IOException if an I/O error occurs, or if the end of the file is reached
+   */
+  private byte[] read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while(buffer.hasRemaining()) {
+      int l = channel.read(buffer, offset + buffer.position());
+      if(l < 0)
+        throw new EOFException(MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename));
+    }
+    return buffer.array();
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * @return the size of the Genotype File, when the store was built
+   */
+  public long getSourceSize() {
+    return sourceSize;
+  }
+
+  /**
+   * @return the modification date of the Genotype File, when the store was built
+   */
+  public long getSourceDate() {
+    return sourceDate;
+  }
+
+  public int getNbSamples() {
+    return nbSamples;
+  }
+
+  public long getNbLines() {
+    return nbLines;
+  }
+
+  /**
+   * @return the index of the blocks, in the order of the file
+   */
+  public List<BlockInfo> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Reads and decodes the annotations of a block, the genotypes are read by {@link #readGenotypes(GenotypesBlock)}
+   *
+   * @param block the index entry of the block
+   * @return the decoded block, without its genotypes
+   * @throws IOException if the block is corrupted, or if an I/O error occurs while reading it
+   */
+  public GenotypesBlock readBlock(BlockInfo block) throws IOException {
+    GnomADBlockCodec.Input frame = new GnomADBlockCodec.Input(read(block.offset, 12));
+    int compressedSize = frame.readInt4();
+    int rawSize = frame.readInt4();
+    int expected = frame.readInt4();
+    byte[] data = GnomADBlockCodec.inflate(read(block.offset + 12, compressedSize), rawSize, expected, MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename));
+    try {
+      GnomADBlockCodec.Input raw = new GnomADBlockCodec.Input(data);
+      int n = raw.readVarInt();
+      if(n != block.nbLines)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename));
+      String[] variants = new String[n];
+      for(int i = 0; i < n; i++)
+        variants[i] = raw.readString();
+      int[] consequences = new int[n];
+      for(int i = 0; i < n; i++)
+        consequences[i] = GnomADBlockCodec.unzigzag(raw.readVarInt());
+      String[] lineGenes = new String[n];
+      for(int i = 0; i < n; i++)
+        lineGenes[i] = genes[raw.readVarInt()];
+
+      int[] flags = new int[n];
+      for(int i = 0; i < n; i++)
+        flags[i] = (raw.read() << 16) | (raw.read() << 8) | raw.read();
+      double[] frequencies = new double[n * GenotypesStoreWriter.NB_FREQUENCIES];
+      for(int f = 0; f < GenotypesStoreWriter.NB_FREQUENCIES; f++)
+        for(int i = 0; i < n; i++)
+          if((flags[i] & (1 << f)) != 0)
+            frequencies[i * GenotypesStoreWriter.NB_FREQUENCIES + f] = Double.longBitsToDouble(raw.readLong8());
+
+      return new GenotypesBlock(variants, consequences, lineGenes, frequencies, block.offset + 12 + compressedSize, rowSize);
+    } catch (RuntimeException e) {
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename), e);
+    }
+  }
+
+  /**
+   * Reads and decodes the genotypes of a block
+   *
+   * @param block the block, with its annotations
+   * @throws IOException if the block is corrupted, or if an I/O error occurs while reading it
+   */
+  public void readGenotypes(GenotypesBlock block) throws IOException {
+    GnomADBlockCodec.Input frame = new GnomADBlockCodec.Input(read(block.getGenotypesOffset(), 12));
+    int compressedSize = frame.readInt4();
+    int rawSize = frame.readInt4();
+    int expected = frame.readInt4();
+    if(rawSize != block.size() * rowSize)
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename));
+    block.setGenotypes(GnomADBlockCodec.inflate(read(block.getGenotypesOffset() + 12, compressedSize), rawSize, expected, MSG.cat(MSG.GNFH_STORE_CORRUPTED, filename)));
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Entry of the index of the blocks
+   */
+  public class BlockInfo {
+    private final long offset;
+    private final int nbLines;
+    private final int firstChrom;
+    private final int firstPos;
+    private final int lastChrom;
+    private final int lastPos;
+    private final int[] geneCodes;
+    private final int maxEnd;
+    private final int nbSNVs;
+    private final int maxConsequence;
+    private final double[] minFrequencies;
+
+    private BlockInfo(GnomADBlockCodec.Input in) {
+      this.offset = in.readLong8();
+      this.nbLines = in.readVarInt();
+      this.firstChrom = GnomADBlockCodec.unzigzag(in.readVarInt());
+      this.firstPos = in.readVarInt();
+      this.lastChrom = GnomADBlockCodec.unzigzag(in.readVarInt());
+      this.lastPos = in.readVarInt();
+      this.maxEnd = in.readVarInt();
+      this.nbSNVs = in.readVarInt();
+      this.maxConsequence = GnomADBlockCodec.unzigzag(in.readVarInt());
+      this.minFrequencies = new double[GenotypesStoreWriter.NB_FREQUENCIES];
+      for(int f = 0; f < minFrequencies.length; f++)
+        minFrequencies[f] = Double.longBitsToDouble(in.readLong8());
+      this.geneCodes = new int[in.readVarInt()];
+      for(int i = 0; i < geneCodes.length; i++)
+        geneCodes[i] = in.readVarInt();
+    }
+
+    public int getNbLines() {
+      return nbLines;
+    }
+
+    /**
+     * @return the chromosome of the smallest variant of the block
+     */
+    public int getFirstChrom() {
+      return firstChrom;
+    }
+
+    /**
+     * @return the position of the smallest variant of the block
+     */
+    public int getFirstPos() {
+      return firstPos;
+    }
+
+    /**
+     * @return the chromosome of the largest variant of the block
+     */
+    public int getLastChrom() {
+      return lastChrom;
+    }
+
+    /**
+     * @return the position of the largest variant of the block
+     */
+    public int getLastPos() {
+      return lastPos;
+    }
+
+    /**
+     * @return the largest end position (position + length) of the variants of the block
+     */
+    public int getMaxEnd() {
+      return maxEnd;
+    }
+
+    /**
+     * @return the number of SNVs in the block
+     */
+    public int getNbSNVs() {
+      return nbSNVs;
+    }
+
+    /**
+     * @return the most severe consequence level in the block
+     */
+    public int getMaxConsequence() {
+      return maxConsequence;
+    }
+
+    /**
+     * @param column the frequency column (0-11 GnomAD exome, 12-23 GnomAD genome)
+     * @return the smallest value of the column in the block
+     */
+    public double getMinFrequency(int column) {
+      return minFrequencies[column];
+    }
+
+    /**
+     * @return the genes affected by the variants of the block
+     */
+    public String[] getGenes() {
+      String[] ret = new String[geneCodes.length];
+      for(int i = 0; i < ret.length; i++)
+        ret[i] = genes[geneCodes[i]];
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for Genotypes Stores : binary, block-compressed version of a Genotype File <br/>
+ * The file is composed of : <br/>
+ * - a header : int4 MAGIC, int4 VERSION, int4 number of samples, long8 size and long8 modification date of the Genotype File <br/>
+ * - the blocks of BLOCK_LINES lines, each as 2 frames (the annotations, then the genotypes), compressed and framed as the blocks of GnomAD Files
+ * ({@link GnomADBlockCodec#frame(byte[], int)}), so that the genotypes are only decompressed if a line passes the filters <br/>
+ * - a footer : long8 number of lines, the dictionary of the genes, and the index of the blocks <br/>
+ * - long8 offset of the footer, int4 MAGIC <br/>
+ * The annotations of a block are stored by columns : <br/>
+ * - number of lines n, n variants (in canonical notation), n consequence levels, n gene codes <br/>
+ * - n flags (3 bytes, one bit per non-null frequency), followed by the 24 frequency columns (12 exome, 12 genome), with the non-null values of each column <br/>
+ * The genotypes of a block are n rows, packed on 2 bits per sample (genotype + 1) <br/>
+ * Each entry of the index has the offset and number of lines of the block, the smallest and largest chromosome/position, the codes of the genes,
+ * and summary statistics used to skip the blocks where no line can pass the filters of an extraction :
+ * the largest end position (position + length), the number of SNVs, the most severe consequence, and the smallest value of each frequency column
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GenotypesStoreWriter {
+  public static final int MAGIC = 0x50475453; //PGTS
+  public static final int VERSION = 3;
+  /**
+   * Number of bytes of the header
+   */
+  public static final int HEADER_SIZE = 28;
+  /**
+   * Number of frequencies for each line (12 for GnomAD exome, 12 for GnomAD genome)
+   */
+  public static final int NB_FREQUENCIES = 24;
+  /**
+   * Number of lines in each block
+   */
+  public static final int BLOCK_LINES = 512;
+
+  private final BinaryFileWriter out;
+  private final int nbSamples;
+  private final int rowSize;
+  private final HashMap<String, Integer> geneCodes;
+  private final ArrayList<String> genes;
+  private final GnomADBlockCodec.Output index;
+  private int nbBlocks = 0;
+  private long nbLines = 0;
+
+  private final ArrayList<String> variants;
+  private final ArrayList<CanonicalVariant> canonicalVariants;
+  private final int[] consequences;
+  private final int[] lineGenes;
+  private final double[][] frequencies;
+  private final byte[] genotypes;
+
+  /**
+   * Creates a new Genotypes Store
+   *
+   * @param filename   the name of the Genotypes Store
+   * @param nbSamples  the number of samples
+   * @param sourceSize the size of the Genotype File
+   * @param sourceDate the modification date of the Genotype File
+   * @throws IOException if an I/O error occurs while writing the header
+   */
+  public GenotypesStoreWriter(String filename, int nbSamples, long sourceSize, long sourceDate) throws IOException {
+    this.out = new BinaryFileWriter(filename);
+    this.nbSamples = nbSamples;
+    this.rowSize = getRowSize(nbSamples);
+    this.geneCodes = new HashMap<>();
+    this.genes = new ArrayList<>();
+    this.index = new GnomADBlockCodec.Output();
+    this.variants = new ArrayList<>(BLOCK_LINES);
+    this.canonicalVariants = new ArrayList<>(BLOCK_LINES);
+    this.consequences = new int[BLOCK_LINES];
+    this.lineGenes = new int[BLOCK_LINES];
+    this.frequencies = new double[BLOCK_LINES][];
+    this.genotypes = new byte[BLOCK_LINES * rowSize];
+    out.writeInt4(MAGIC);
+    out.writeInt4(VERSION);
+    out.writeInt4(nbSamples);
+    out.writeLong8(sourceSize);
+    out.writeLong8(sourceDate);
+  }
+
+  /**
+   * @param nbSamples the number of samples
+   * @return the number of bytes of a row of packed genotypes
+   */
+  static int getRowSize(int nbSamples) {
+    return (nbSamples + 3) / 4;
+  }
+
+  /**
+   * Adds a line of the Genotype File
+   *
+   * @param variant     the variant in canonical notation
+   * @param consequence the consequence level
+   * @param gene        the affected gene
+   * @param frequencies the 24 GnomAD frequencies (12 exome, 12 genome)
+   * @param genotype    the genotypes of the samples (0, 1 or 2; -1 for missing data)
+   * @throws IOException if the line cannot be stored, or if an I/O error occurs while writing a block
+   */
+  public void add(String variant, int consequence, String gene, double[] frequencies, int[] genotype) throws IOException {
+    if(genotype.length != nbSamples)
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_SAMPLES, variant));
+    CanonicalVariant canonicalVariant;
+    try {
+      canonicalVariant = new CanonicalVariant(variant);
+    } catch (RuntimeException e) {
+      throw new IOException(MSG.cat(MSG.GNFH_STORE_VARIANT, variant), e);
+    }
+    int n = variants.size();
+    int row = n * rowSize;
+    for(int s = 0; s < nbSamples; s++) {
+      int g = genotype[s];
+      if(g < -1 || g > 2)
+        throw new IOException(MSG.cat(MSG.GNFH_STORE_GENOTYPE, g));
+      genotypes[row + (s >> 2)] |= (g + 1) << ((s & 3) << 1);
+    }
+    variants.add(variant);
+    canonicalVariants.add(canonicalVariant);
+    consequences[n] = consequence;
+    lineGenes[n] = geneCodes.computeIfAbsent(gene, k -> {
+      genes.add(k);
+      return genes.size() - 1;
+    });
+    this.frequencies[n] = frequencies.clone();
+    if(variants.size() == BLOCK_LINES)
+      writeBlock();
+  }
+
+  /**
+   * Writes the current block, and its entry in the index
+   *
+   * @throws IOException if an I/O error occurs while writing the block
+   */
+  private void writeBlock() throws IOException {
+    int n = variants.size();
+    if(n == 0)
+      return;
+    GnomADBlockCodec.Output raw = new GnomADBlockCodec.Output();
+    raw.writeVarInt(n);
+    for(String variant : variants)
+      raw.writeString(variant);
+    for(int i = 0; i < n; i++)
+      raw.writeVarInt(GnomADBlockCodec.zigzag(consequences[i]));
+    for(int i = 0; i < n; i++)
+      raw.writeVarInt(lineGenes[i]);
+
+    for(int i = 0; i < n; i++) {
+      int flag = 0;
+      for(int f = 0; f < NB_FREQUENCIES; f++)
+        if(frequencies[i][f] != 0)
+          flag |= 1 << f;
+      raw.write(flag >> 16);
+      raw.write(flag >> 8);
+      raw.write(flag);
+    }
+    for(int f = 0; f < NB_FREQUENCIES; f++)
+      for(int i = 0; i < n; i++)
+        if(frequencies[i][f] != 0)
+          raw.writeLong8(Double.doubleToLongBits(frequencies[i][f]));
+
+    long offset = out.getBytesWritten();
+    out.write(GnomADBlockCodec.frame(raw.toByteArray(), Deflater.DEFAULT_COMPRESSION));
+    out.write(GnomADBlockCodec.frame(Arrays.copyOf(genotypes, n * rowSize), Deflater.DEFAULT_COMPRESSION));
+
+    //the range of the block, even if the lines are not sorted
+    CanonicalVariant first = canonicalVariants.get(0);
+    CanonicalVariant last = first;
+    for(CanonicalVariant canonicalVariant : canonicalVariants) {
+      if(canonicalVariant.compareTo(first) < 0)
+        first = canonicalVariant;
+      if(canonicalVariant.compareTo(last) > 0)
+        last = canonicalVariant;
+    }
+    index.writeLong8(offset);
+    index.writeVarInt(n);
+    index.writeVarInt(GnomADBlockCodec.zigzag(first.getChrom()));
+    index.writeVarInt(first.getPos());
+    index.writeVarInt(GnomADBlockCodec.zigzag(last.getChrom()));
+    index.writeVarInt(last.getPos());
+    int maxEnd = 0;
+    int nbSNVs = 0;
+    for(CanonicalVariant canonicalVariant : canonicalVariants) {
+      maxEnd = Math.max(maxEnd, canonicalVariant.getPos() + canonicalVariant.getLength());
+      if(canonicalVariant.isSNV())
+        nbSNVs++;
+    }
+    index.writeVarInt(maxEnd);
+    index.writeVarInt(nbSNVs);
+    int maxConsequence = consequences[0];
+    for(int i = 1; i < n; i++)
+      maxConsequence = Math.max(maxConsequence, consequences[i]);
+    index.writeVarInt(GnomADBlockCodec.zigzag(maxConsequence));
+    for(int f = 0; f < NB_FREQUENCIES; f++) {
+      double min = frequencies[0][f];
+      for(int i = 1; i < n; i++)
+        min = Math.min(min, frequencies[i][f]);
+      index.writeLong8(Double.doubleToLongBits(min));
+    }
+    TreeSet<Integer> blockGenes = new TreeSet<>();
+    for(int i = 0; i < n; i++)
+      blockGenes.add(lineGenes[i]);
+    index.writeVarInt(blockGenes.size());
+    for(int gene : blockGenes)
+      index.writeVarInt(gene);
+
+    nbBlocks++;
+    nbLines += n;
+    variants.clear();
+    canonicalVariants.clear();
+    Arrays.fill(genotypes, (byte)0);
+  }
+
+  /**
+   * Writes the last block and the footer, and closes the file
+   *
+   * @throws IOException if an I/O error occurs while writing
+   */
+  public void close() throws IOException {
+    writeBlock();
+    long footer = out.getBytesWritten();
+    GnomADBlockCodec.Output dictionary = new GnomADBlockCodec.Output();
+    dictionary.writeLong8(nbLines);
+    dictionary.writeVarInt(genes.size());
+    for(String gene : genes)
+      dictionary.writeString(gene);
+    dictionary.writeVarInt(nbBlocks);
+    out.write(dictionary.toByteArray());
+    out.write(index.toByteArray());
+    out.writeLong8(footer);
+    out.writeInt4(MAGIC);
+    out.close();
+  }
+}
@@ -0,0 +1,354 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.constants.Parameters;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Thread-safe GnomAD annotation service <br/>
+ * There is one service for each GnomAD binary file, shared by all the callers of the JVM (RPP sessions, conversion workers...).
+ * If the file (or its index) is replaced, the next call to getService() opens a new service.
+ * The decoded blocks are kept in a LRU cache, bounded by their estimated size in memory : concurrent conversions against the same GnomAD version share a warm cache.
+ * A block requested by several threads at the same time is only decoded once.
+ * A decoded block is a sorted array of lines. The lines of old files in the line format may be unsorted : such blocks are sorted through a map when they are decoded.
+ * Each caller uses its own Lookup (binary search in the blocks), or its own GnomADSweep (merge-join of sorted variants against the blocks),
+ * that keeps the last blocks it used, so that sorted queries do not contend on the cache.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GnomADAnnotationService {
+  /**
+   * Estimated size in memory of a decoded GnomADLine (line, variant, alt, frequencies and reference in the block)
+   */
+  private static final int LINE_BYTES = 320;
+  private static final GnomADLine[] NO_LINES = new GnomADLine[0];
+  /**
+   * Empty block that covers no position, initial block of the Lookups and GnomADSweeps
+   */
+  static final Block EMPTY = new Block(-1, Integer.MIN_VALUE, Integer.MIN_VALUE, NO_LINES);
+
+  private static final HashMap<String, GnomADAnnotationService> SERVICES = new HashMap<>();
+
+  private final GnomADIndexReader index;
+  private final String signature;
+  private final long maxBytes;
+  private long bytes = 0;
+  private final LinkedHashMap<BlockKey, CachedBlock> blocks;
+
+  /**
+   * Gets the service for a GnomAD binary file, opening it if needed (or if the file has been replaced since the service was opened)
+   *
+   * @param filename the name of the GnomAD binary file
+   * @param log      the instance that will log events
+   * @return the service shared by all the callers for this file
+   * @throws IOException if an I/O error occurs while reading the index or mapping the file
+   */
+  public static GnomADAnnotationService getService(String filename, Instance log) throws IOException {
+    String key = new File(filename).getCanonicalPath();
+    String signature = getSignature(filename);
+    synchronized (SERVICES) {
+      GnomADAnnotationService service = SERVICES.get(key);
+      if (service == null || !service.signature.equals(signature)) {
+        //the previous service (if any) is still usable by its current callers
+        service = new GnomADAnnotationService(new GnomADIndexReader(filename, log), signature, Parameters.GNOMAD_CACHE_BYTES);
+        SERVICES.put(key, service);
+      }
+      return service;
+    }
+  }
+
+  /**
+   * Gets the signature of a GnomAD binary file and of its index, to detect if they have been replaced
+   *
+   * @param filename the name of the GnomAD binary file
+   * @return the sizes and modification dates of the file and of its index
+   */
+  private static String getSignature(String filename) {
+    File file = new File(filename);
+    File idx = new File(filename + ".idx");
+    return file.length() + ":" + file.lastModified() + ":" + idx.length() + ":" + idx.lastModified();
+  }
+
+  /**
+   * Creates a new service without shared cache, for a single thread (the last decoded block is kept)
+   *
+   * @param index the index of the GnomAD binary file
+   */
+  GnomADAnnotationService(GnomADIndexReader index) {
+    this(index, "", 0);
+  }
+
+  /**
+   * Creates a new service (use getService() to share the service)
+   *
+   * @param index     the index of the GnomAD binary file
+   * @param signature the signature of the GnomAD binary file when it was opened
+   * @param maxBytes  estimated size in memory above which the least recently used blocks are evicted
+   */
+  GnomADAnnotationService(GnomADIndexReader index, String signature, long maxBytes) {
+    this.index = index;
+    this.signature = signature;
+    this.maxBytes = maxBytes;
+    this.blocks = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  public GnomADIndexHeader getHeader() {
+    return index.getHeader();
+  }
+
+  /**
+   * @return a new Lookup, to be used by a single thread
+   */
+  public Lookup newLookup() {
+    return new Lookup();
+  }
+
+  /**
+   * @return a new Sweep, to annotate sorted variants in a single thread, with the blocks of the shared cache
+   */
+  public GnomADSweep newSweep() {
+    return new GnomADSweep(this);
+  }
+
+  /**
+   * Gets the block containing a position
+   *
+   * @param exome true for the exome file, false for the genome file
+   * @param chrom the chromosome
+   * @param pos   the position
+   * @return the decoded block
+   * @throws IOException if the block is corrupted, or if the thread is interrupted while another thread decodes the block
+   */
+  Block getBlock(boolean exome, int chrom, int pos) throws IOException {
+    GnomADIndexReader.ChromIndex chromIndex = index.getChromIndex(exome, chrom);
+    if (chromIndex == null) //No variant for this chrom, so the empty block covers the whole chrom
+      return new Block(chrom, Integer.MIN_VALUE, Integer.MAX_VALUE, NO_LINES);
+    int block = chromIndex.floor(pos);
+    if (block < 0)
+      return new Block(chrom, Integer.MIN_VALUE, chromIndex.getPosition(0), NO_LINES);
+    final int first = chromIndex.getPosition(block);
+    final int last = block + 1 < chromIndex.size() ? chromIndex.getPosition(block + 1) : Integer.MAX_VALUE;
+    final long offset = chromIndex.getOffset(block);
+
+    BlockKey key = new BlockKey(exome, chrom, block);
+    CachedBlock task;
+    boolean owner = false;
+    synchronized (this) {
+      task = blocks.get(key);
+      if (task == null) {
+        task = new CachedBlock(() -> {
+          ArrayList<GnomADLine> lines = new ArrayList<>();
+          GnomADIndexReader.readBlock(new GnomADMappedFileReader(index.getMappedFile()), index.getFormat(), offset, chrom, last, lines);
+          GnomADLine[] sorted = sort(lines);
+          return new Block(chrom, first, last, sorted, sorted.length * (long) LINE_BYTES);
+        });
+        blocks.put(key, task);
+        owner = true;
+      }
+    }
+
+    //the block is decoded outside of the lock, other threads requesting it wait for the result
+    if (owner)
+      task.run();
+    Block ret;
+    try {
+      ret = task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      synchronized (this) {
+        blocks.remove(key, task);
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException(cause);
+    }
+    if (owner)
+      added(key, task, ret.bytes);
+    return ret;
+  }
+
+  /**
+   * Gets the lines of a block, sorted
+   *
+   * @param lines the lines of the block, in the order of the file
+   * @return the lines, in the same order if they were sorted. Otherwise, the lines sorted through a map (the last line is kept for duplicated variants)
+   */
+  private static GnomADLine[] sort(ArrayList<GnomADLine> lines) {
+    for (int i = 1; i < lines.size(); i++)
+      if (lines.get(i - 1).getCanonicalVariant().compareTo(lines.get(i).getCanonicalVariant()) > 0) {
+        TreeMap<CanonicalVariant, GnomADLine> variants = new TreeMap<>();
+        for (GnomADLine line : lines)
+          variants.put(line.getCanonicalVariant(), line);
+        return variants.values().toArray(NO_LINES);
+      }
+    return lines.toArray(NO_LINES);
+  }
+
+  /**
+   * Accounts for a new block, and evicts the least recently used blocks if needed
+   *
+   * @param key   the key of the new block
+   * @param task  the task that decoded the block
+   * @param size  the estimated size of the new block
+   */
+  private synchronized void added(BlockKey key, CachedBlock task, long size) {
+    //the block is not accounted if it has been removed in the meantime
+    if (blocks.get(key) != task)
+      return;
+    task.bytes = size;
+    bytes += size;
+    Iterator<CachedBlock> iterator = blocks.values().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      CachedBlock eldest = iterator.next();
+      //blocks being decoded, or not accounted yet, are not evicted
+      if (eldest != task && eldest.bytes >= 0) {
+        bytes -= eldest.bytes;
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Lookup of GnomAD annotations for a single thread : keeps the last exome and genome blocks, and gets the other ones from the service
+   */
+  public class Lookup implements GnomADAnnotator {
+    private Block exome = EMPTY;
+    private Block genome = EMPTY;
+
+    private Lookup() {
+    }
+
+    /**
+     * Gets the GnomAD Annotation for a given variant
+     *
+     * @param canonical the canonical representation of the variant
+     * @return the exome and genome GnomAD Annotations, null when none is found
+     * @throws IOException if a block is corrupted
+     */
+    @Override
+    public GnomADLine[] fetch(CanonicalVariant canonical) throws IOException {
+      int chrom = canonical.getChrom();
+      int pos = canonical.getPos();
+      if (!exome.contains(chrom, pos))
+        exome = getBlock(true, chrom, pos);
+      if (!genome.contains(chrom, pos))
+        genome = getBlock(false, chrom, pos);
+      return new GnomADLine[]{exome.get(canonical), genome.get(canonical)};
+    }
+  }
+
+  /**
+   * Decoded block of GnomADLines, covering the positions [first;last[ of a chromosome
+   */
+  static class Block {
+    private final int chrom;
+    private final int first;
+    private final int last;
+    /**
+     * the lines of the block, sorted (duplicated variants are kept in the order of the file)
+     */
+    final GnomADLine[] lines;
+    private final long bytes;
+
+    Block(int chrom, int first, int last, GnomADLine[] lines) {
+      this(chrom, first, last, lines, 0);
+    }
+
+    Block(int chrom, int first, int last, GnomADLine[] lines, long bytes) {
+      this.chrom = chrom;
+      this.first = first;
+      this.last = last;
+      this.lines = lines;
+      this.bytes = bytes;
+    }
+
+    boolean contains(int chrom, int pos) {
+      return chrom == this.chrom && first <= pos && pos < last;
+    }
+
+    /**
+     * Gets the line of a variant (binary search)
+     *
+     * @param canonical the variant
+     * @return the line of the variant (the last one for duplicated variants), or null if there is none
+     */
+    GnomADLine get(CanonicalVariant canonical) {
+      int found = -1;
+      int low = 0;
+      int high = lines.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int c = lines[mid].getCanonicalVariant().compareTo(canonical);
+        if (c <= 0) {
+          if (c == 0)
+            found = mid;
+          low = mid + 1;
+        } else
+          high = mid - 1;
+      }
+      return found < 0 ? null : lines[found];
+    }
+  }
+
+  /**
+   * Block of the cache, decoded by the first thread that requests it
+   */
+  private static class CachedBlock extends FutureTask<Block> {
+    /**
+     * estimated size of the block accounted in the cache, -1 until the block is added by its owner
+     */
+    private long bytes = -1;
+
+    CachedBlock(Callable<Block> callable) {
+      super(callable);
+    }
+  }
+
+  /**
+   * Key of a block in the cache
+   */
+  private static class BlockKey {
+    private final boolean exome;
+    private final int chrom;
+    private final int block;
+
+    BlockKey(boolean exome, int chrom, int block) {
+      this.exome = exome;
+      this.chrom = chrom;
+      this.block = block;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BlockKey))
+        return false;
+      BlockKey that = (BlockKey) o;
+      return exome == that.exome && chrom == that.chrom && block == that.block;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Boolean.hashCode(exome) + chrom) + block;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.IOException;
+
+/**
+ * Source of GnomAD Annotations (exome and genome) for variants
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public interface GnomADAnnotator {
+  /**
+   * Gets the GnomAD Annotation for a given variant
+   *
+   * @param canonical the canonical representation of the variant
+   * @return the exome and genome GnomAD Annotations, null when none is found
+   * @throws IOException if an I/O error occurs while reading the GnomAD File
+   */
+  GnomADLine[] fetch(CanonicalVariant canonical) throws IOException;
+}
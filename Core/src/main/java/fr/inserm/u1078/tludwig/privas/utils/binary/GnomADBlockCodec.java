@@ -0,0 +1,373 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoder/Decoder for the blocks of GnomAD Files in the block format ({@link GnomADFileHeader#FORMAT_BLOCKS}) <br/>
+ * Each indexed block (bufferSize positions of a chromosome) is stored as : <br/>
+ * - int4 compressed size, int4 raw size, int4 CRC32 of the raw data <br/>
+ * - the raw data compressed with Deflate <br/>
+ * The raw data is stored by columns : <br/>
+ * - number of variants n, chromosome, first position, (n-1) position deltas <br/>
+ * - n lengths <br/>
+ * - dictionary of the alternate alleles, and n dictionary codes <br/>
+ * - n flags (non-null frequencies, as in the line format) <br/>
+ * - 12 frequency columns, with the non-null values of each column (3 bytes, as in the line format, stored as 3 byte planes) <br/>
+ * Integers are written as variable length integers (7 bits per byte), the deltas are zigzag encoded.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+final class GnomADBlockCodec {
+  /**
+   * Maximum compression ratio of Deflate, the raw size of a valid frame cannot exceed it
+   */
+  private static final int MAX_DEFLATE_RATIO = 1032;
+
+  private GnomADBlockCodec() {
+  }
+
+  /**
+   * Encodes a block
+   * @param lines the lines of the block (same chromosome, sorted)
+   * @return the framed and compressed block
+   */
+  static byte[] encode(List<GnomADLine> lines) {
+    int n = lines.size();
+    Output raw = new Output();
+    raw.writeVarInt(n);
+    raw.writeVarInt(n == 0 ? 0 : lines.get(0).getCanonicalVariant().getChrom());
+    int prev = 0;
+    for(GnomADLine line : lines) {
+      int pos = line.getCanonicalVariant().getPos();
+      raw.writeVarInt(zigzag(pos - prev));
+      prev = pos;
+    }
+
+    for(GnomADLine line : lines)
+      raw.writeVarInt(line.getCanonicalVariant().getLength());
+
+    HashMap<String, Integer> codes = new HashMap<>();
+    ArrayList<String> dictionary = new ArrayList<>();
+    int[] alts = new int[n];
+    for(int i = 0; i < n; i++) {
+      String alt = lines.get(i).getCanonicalVariant().getAlt();
+      Integer code = codes.get(alt);
+      if(code == null) {
+        code = dictionary.size();
+        codes.put(alt, code);
+        dictionary.add(alt);
+      }
+      alts[i] = code;
+    }
+    raw.writeVarInt(dictionary.size());
+    for(String alt : dictionary) {
+      raw.writeVarInt(alt.length());
+      for(int i = 0; i < alt.length(); i++)
+        raw.write(alt.charAt(i));
+    }
+    for(int alt : alts)
+      raw.writeVarInt(alt);
+
+    for(GnomADLine line : lines) {
+      double[] frequencies = line.getFrequencies();
+      int flag = 0;
+      for(int f = 0; f < 12; f++)
+        if(frequencies[f] != 0)
+          flag += GnomADFileReader.FLAGS[f];
+      raw.write(flag >> 8);
+      raw.write(flag);
+    }
+    //each column is split in 3 byte planes, that compress better than interleaved bytes
+    Output[] planes = {new Output(), new Output(), new Output()};
+    for(int f = 0; f < 12; f++) {
+      for(GnomADLine line : lines) {
+        double frequency = line.getFrequencies()[f];
+        if(frequency != 0) {
+          byte[] encoded = BinaryFileWriter.encodeDouble0To1(frequency);
+          for(int b = 0; b < 3; b++)
+            planes[b].write(encoded[b]);
+        }
+      }
+      for(Output plane : planes) {
+        raw.write(plane.toByteArray(), 0, plane.size());
+        plane.reset();
+      }
+    }
+
+    return frame(raw.toByteArray(), Deflater.BEST_COMPRESSION);
+  }
+
+  /**
+   * Compresses raw data, and prefixes it with its compressed size, raw size and CRC32
+   * @param data  the raw data
+   * @param level the compression level of the Deflater
+   * @return the framed and compressed data
+   */
+  static byte[] frame(byte[] data, int level) {
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+
+    Deflater deflater = new Deflater(level);
+    byte[] compressed;
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      Output out = new Output();
+      byte[] buffer = new byte[8192];
+      while(!deflater.finished()) {
+        int l = deflater.deflate(buffer);
+        out.write(buffer, 0, l);
+      }
+      compressed = out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+
+    Output framed = new Output();
+    framed.writeInt4(compressed.length);
+    framed.writeInt4(data.length);
+    framed.writeInt4((int)crc.getValue());
+    framed.write(compressed, 0, compressed.length);
+    return framed.toByteArray();
+  }
+
+  /**
+   * Decodes the block at the current position of the reader
+   * @param in       the memory-mapped GnomAD file
+   * @param chrom    the chromosome of the block
+   * @param lines    the list to fill with the lines of the block, in the order of the file
+   * @return the number of lines read
+   * @throws IOException if the block is corrupted
+   */
+  static int decode(GnomADMappedFileReader in, int chrom, List<GnomADLine> lines) throws IOException {
+    String error = MSG.cat(MSG.GNOMAD_CORRUPTED_BLOCK, in.getFilename());
+    try {
+      return decode(in, chrom, lines, error);
+    } catch (RuntimeException e) {
+      throw new IOException(error, e);
+    }
+  }
+
+  private static int decode(GnomADMappedFileReader in, int chrom, List<GnomADLine> lines, String error) throws IOException {
+    if(in.getSize() - in.getPosition() < 12)
+      throw new IOException(error);
+    int compressedSize = in.readInt4();
+    int rawSize = in.readInt4();
+    int expected = in.readInt4();
+    if(compressedSize < 0 || compressedSize > in.getSize() - in.getPosition())
+      throw new IOException(error);
+    byte[] compressed = new byte[compressedSize];
+    in.read(compressed);
+
+    byte[] data = inflate(compressed, rawSize, expected, error);
+
+    Input raw = new Input(data);
+    int n = raw.readVarInt();
+    int blockChrom = raw.readVarInt();
+    if(n < 0 || (n > 0 && blockChrom != chrom))
+      throw new IOException(error);
+
+    int[] positions = new int[n];
+    int prev = 0;
+    for(int i = 0; i < n; i++) {
+      prev += unzigzag(raw.readVarInt());
+      positions[i] = prev;
+    }
+
+    int[] lengths = new int[n];
+    for(int i = 0; i < n; i++)
+      lengths[i] = raw.readVarInt();
+
+    String[] dictionary = new String[raw.readVarInt()];
+    for(int d = 0; d < dictionary.length; d++) {
+      char[] alt = new char[raw.readVarInt()];
+      for(int i = 0; i < alt.length; i++)
+        alt[i] = (char)raw.read();
+      dictionary[d] = new String(alt);
+    }
+    int[] alts = new int[n];
+    for(int i = 0; i < n; i++) {
+      alts[i] = raw.readVarInt();
+      if(alts[i] < 0 || alts[i] >= dictionary.length)
+        throw new IOException(error);
+    }
+
+    int[] flags = new int[n];
+    for(int i = 0; i < n; i++)
+      flags[i] = (raw.read() << 8) | raw.read();
+
+    double[][] frequencies = new double[n][12];
+    for(int f = 0; f < 12; f++) {
+      int flag = GnomADFileReader.FLAGS[f];
+      int nb = 0;
+      for(int i = 0; i < n; i++)
+        if((flags[i] & flag) == flag)
+          nb++;
+      int a = raw.skip(nb);
+      int b = raw.skip(nb);
+      int c = raw.skip(nb);
+      for(int i = 0; i < n; i++)
+        if((flags[i] & flag) == flag)
+          frequencies[i][f] = BinaryFileReader.decodeDouble0to1(raw.get(a++), raw.get(b++), raw.get(c++));
+    }
+
+    for(int i = 0; i < n; i++) {
+      CanonicalVariant variant = new CanonicalVariant(chrom, positions[i], lengths[i], dictionary[alts[i]]);
+      lines.add(new GnomADLine(variant, frequencies[i]));
+    }
+    return n;
+  }
+
+  /**
+   * Decompresses framed data, and checks its CRC32
+   * @param compressed the compressed data
+   * @param rawSize    the size of the raw data
+   * @param expected   the CRC32 of the raw data
+   * @param error      the message of the exception, if the data are corrupted
+   * @return the raw data
+   * @throws IOException if the data are corrupted
+   */
+  static byte[] inflate(byte[] compressed, int rawSize, int expected, String error) throws IOException {
+    if(rawSize < 0 || rawSize > (long)MAX_DEFLATE_RATIO * compressed.length)
+      throw new IOException(error);
+    byte[] data = new byte[rawSize];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      int l = 0;
+      while(l < rawSize && !inflater.finished()) {
+        int r = inflater.inflate(data, l, rawSize - l);
+        //truncated data
+        if(r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        l += r;
+      }
+      if(l != rawSize)
+        throw new IOException(error);
+    } catch (DataFormatException e) {
+      throw new IOException(error, e);
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, rawSize);
+    if((int)crc.getValue() != expected)
+      throw new IOException(error);
+    return data;
+  }
+
+  static int zigzag(int i) {
+    return (i << 1) ^ (i >> 31);
+  }
+
+  static int unzigzag(int i) {
+    return (i >>> 1) ^ -(i & 1);
+  }
+
+  /**
+   * Byte array output with variable length integers
+   */
+  static class Output extends ByteArrayOutputStream {
+    void writeVarInt(int i) {
+      while((i & ~0x7F) != 0) {
+        write((i & 0x7F) | 0x80);
+        i >>>= 7;
+      }
+      write(i);
+    }
+
+    void writeInt4(int i) {
+      write(i >>> 24);
+      write(i >>> 16);
+      write(i >>> 8);
+      write(i);
+    }
+
+    void writeLong8(long l) {
+      writeInt4((int)(l >>> 32));
+      writeInt4((int)l);
+    }
+
+    void writeString(String s) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Byte array input with variable length integers
+   */
+  static class Input {
+    private final byte[] data;
+    private int position = 0;
+
+    Input(byte[] data) {
+      this.data = data;
+    }
+
+    int read() {
+      return data[position++] & 0xFF;
+    }
+
+    int get(int index) {
+      return data[index] & 0xFF;
+    }
+
+    /**
+     * Skips bytes
+     * @param nb the number of bytes to skip
+     * @return the position before skipping
+     */
+    int skip(int nb) {
+      int start = position;
+      position += nb;
+      return start;
+    }
+
+    int readVarInt() {
+      int i = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = read();
+        i |= (b & 0x7F) << shift;
+        shift += 7;
+      } while((b & 0x80) != 0);
+      return i;
+    }
+
+    int readInt4() {
+      return (read() << 24) | (read() << 16) | (read() << 8) | read();
+    }
+
+    long readLong8() {
+      long l = 0;
+      for(int i = 0; i < 8; i++)
+        l = (l << 8) | read();
+      return l;
+    }
+
+    String readString() {
+      int length = readVarInt();
+      String s = new String(data, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return s;
+    }
+  }
+}
@@ -14,16 +14,31 @@ import java.util.Date;
  * Unit Test defined on   XXXX-XX-XX
  */
 public class GnomADFileHeader {
+  /**
+   * Original format : one line per variant
+   */
+  public static final int FORMAT_LINES = 1;
+  /**
+   * Block format : compressed columnar blocks with checksums (see GnomADBlockCodec)
+   */
+  public static final int FORMAT_BLOCKS = 2;
+
   private final String version;
   private final String[] exomePath;
   private final String[] genomePath;
   private final Date date;
+  private final int format;
 
   public GnomADFileHeader(String version, String[] exomePath, String[] genomePath, Date date) {
+    this(version, exomePath, genomePath, date, FORMAT_LINES);
+  }
+
+  public GnomADFileHeader(String version, String[] exomePath, String[] genomePath, Date date, int format) {
     this.version = version;
     this.exomePath = exomePath;
     this.genomePath = genomePath;
     this.date = date;
+    this.format = format;
   }
 
   public static GnomADFileHeader parseHeader(String s) {
@@ -31,6 +46,7 @@ public class GnomADFileHeader {
     String[] eP = null;
     String[] gP = null;
     Date d = null;
+    int fmt = FORMAT_LINES;
     for(String line : s.split("\n")){
       String[] f = line.split("\t");
       switch(f[0]){
@@ -50,10 +66,17 @@ public class GnomADFileHeader {
             d = new Date(0);
           }
           break;
+        case FileFormat.TAG_FORMAT:
+          try {
+            fmt = Integer.parseInt(f[1]);
+          } catch(NumberFormatException e){
+            fmt = FORMAT_LINES;
+          }
+          break;
       }
     }
 
-    return new GnomADFileHeader(v, eP, gP, d);
+    return new GnomADFileHeader(v, eP, gP, d, fmt);
   }
 
   @Override
@@ -61,7 +84,8 @@ public class GnomADFileHeader {
     return FileFormat.TAG_VERSION + "\t" + version + "\n" +
            FileFormat.TAG_EXOME_PATH + "\t" + String.join(",", exomePath) + "\n" +
            FileFormat.TAG_GENOME_PATH + "\t" + String.join(",", genomePath) + "\n" +
-           FileFormat.TAG_DATE + "\t" + getDateAsString() + "\n";
+           FileFormat.TAG_DATE + "\t" + getDateAsString() + "\n" +
+           (format == FORMAT_LINES ? "" : FileFormat.TAG_FORMAT + "\t" + format + "\n");
   }
 
   public String getDateAsString() {
@@ -83,4 +107,8 @@ public class GnomADFileHeader {
   public Date getDate() {
     return date;
   }
+
+  public int getFormat() {
+    return format;
+  }
 }
@@ -1,7 +1,5 @@
 package fr.inserm.u1078.tludwig.privas.utils.binary;
 
-import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
-
 import java.io.IOException;
 
 
@@ -13,7 +11,7 @@ import java.io.IOException;
  * Checked for release on XXXX-XX-XX
  * Unit Test defined on   XXXX-XX-XX
  */
-public class GnomADFileReader extends BinaryFileReader {
+public class GnomADFileReader extends BinaryFileReader implements GnomADLineDecoder.Source {
 
   public static final int[] FLAGS = {
           1,2,4,8,
@@ -29,21 +27,11 @@ public class GnomADFileReader extends BinaryFileReader {
   }
 
   public double[] readFrequencies() throws IOException {
-    int flag = readInt1or2();
-
-    double[] frequencies = new double[12];
-    for(int i = 0; i < 12; i++)
-      if((flag & FLAGS[i]) == FLAGS[i])
-        frequencies[i] = readDouble3();
-    return frequencies;
+    return GnomADLineDecoder.readFrequencies(this);
   }
 
   public String readSequence() throws IOException {
-    int len = readInt1or2();
-    StringBuilder sb = new StringBuilder();
-    for(int i = 0 ; i < len; i+=4)
-      sb.append(read4Char1());
-    return sb.substring(0, len);
+    return GnomADLineDecoder.readSequence(this);
   }
 
   public static final String[] ACGT ={"A", "C", "G", "T"};
@@ -61,15 +49,6 @@ public class GnomADFileReader extends BinaryFileReader {
   }
 
   public GnomADLine readGnomADLine() throws IOException {
-    int chrom = readInt1();
-    int pos = readInt4();
-    int flag = readInt1();
-
-    int length = GnomADLine.isLength1(flag) ? 1 : readInt1or2();
-    String alt = GnomADLine.getSeq(flag);
-    if(alt.isEmpty())
-      alt = readSequence();
-    double[] frequencies = GnomADLine.isNullFrequencies(flag) ? new double[12] : readFrequencies();
-    return new GnomADLine(new CanonicalVariant(chrom, pos, length, alt), frequencies);
+    return GnomADLineDecoder.readGnomADLine(this);
   }
 }
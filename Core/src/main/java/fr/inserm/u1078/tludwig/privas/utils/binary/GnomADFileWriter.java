@@ -1,12 +1,18 @@
 package fr.inserm.u1078.tludwig.privas.utils.binary;
 
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
 import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+import fr.inserm.u1078.tludwig.privas.utils.ExtractAnnotations;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 
 /**
  * Writer for the binary version of GnomADFiles
+ * When the index is enabled, the offsets of the lines are tracked while writing, and the index file is written without reading the GnomAD File again
+ * In the block format, the lines of each indexed block are buffered, and written as a single compressed block (see GnomADBlockCodec)
  *
  * @author Thomas E. Ludwig (INSERM - U1078)
  * Started on             2021-08-09
@@ -16,8 +22,43 @@ import java.io.IOException;
 public class GnomADFileWriter extends BinaryFileWriter {
   public static final int[] FLAGS = GnomADFileReader.FLAGS;
 
+  private GnomADFileHeader header;
+  private int bufferSize;
+  private boolean byVariants;
+  private Instance log;
+  private GnomADIndexBuilder indexBuilder;
+  private final ArrayList<ExtractAnnotations.IndexData> sections;
+  private final int format;
+  private final ArrayList<GnomADLine> block;
+
   public GnomADFileWriter(String filename) throws IOException {
+    this(filename, GnomADFileHeader.FORMAT_LINES);
+  }
+
+  /**
+   * Creates a new GnomADFileWriter
+   * @param filename the name of the GnomAD File
+   * @param format   the format of the file (GnomADFileHeader.FORMAT_LINES or GnomADFileHeader.FORMAT_BLOCKS)
+   * @throws IOException if the file cannot be created
+   */
+  public GnomADFileWriter(String filename, int format) throws IOException {
     super(filename);
+    this.sections = new ArrayList<>();
+    this.format = format;
+    this.block = new ArrayList<>();
+  }
+
+  /**
+   * Builds the index of the GnomAD File while writing it (must be called before writing the first line)
+   * @param bufferSize the number of positions (or variants) per block
+   * @param byVariants if true, the blocks are sized by number of variants, to adapt to the density of each chromosome
+   * @param log        the instance that will log unsorted variants
+   */
+  public void enableIndex(int bufferSize, boolean byVariants, Instance log) {
+    this.bufferSize = bufferSize;
+    this.byVariants = byVariants;
+    this.log = log;
+    this.indexBuilder = new GnomADIndexBuilder(bufferSize, byVariants, log);
   }
 
   public void writeFrequencies(double[] frequencies) throws IOException {
@@ -62,6 +103,11 @@ public class GnomADFileWriter extends BinaryFileWriter {
   }
 
   public void writeGnomADLine(GnomADLine gnomADLine) throws IOException {
+    if(format == GnomADFileHeader.FORMAT_BLOCKS) {
+      addToBlock(gnomADLine);
+      return;
+    }
+    long offset = getBytesWritten();
     CanonicalVariant canonicalVariant = gnomADLine.getCanonicalVariant();
     writeInt1(canonicalVariant.getChrom());
     writeInt4(canonicalVariant.getPos());
@@ -86,9 +132,75 @@ public class GnomADFileWriter extends BinaryFileWriter {
       writeSequence(canonicalVariant.getAlt());
     if(!nf)
       writeFrequencies(gnomADLine.getFrequencies());
+
+    if(indexBuilder != null) {
+      if(gnomADLine.isNull()) { //end of section
+        sections.add(indexBuilder.build());
+        indexBuilder = new GnomADIndexBuilder(bufferSize, byVariants, log);
+      } else
+        indexBuilder.add(canonicalVariant, offset, getBytesWritten());
+    }
+  }
+
+  /**
+   * Adds a line to the current block, the previous block is written if the line starts a new one
+   * @param gnomADLine the line, or GnomADLine.NULL to end the section
+   * @throws IOException if an I/O error occurs while writing the block
+   */
+  private void addToBlock(GnomADLine gnomADLine) throws IOException {
+    if(indexBuilder == null)
+      throw new IOException(MSG.EXT_BLOCKS_NEED_INDEX);
+    if(gnomADLine.isNull()) { //end of section
+      writeBlock();
+      indexBuilder.end(getBytesWritten());
+      sections.add(indexBuilder.build());
+      indexBuilder = new GnomADIndexBuilder(bufferSize, byVariants, log);
+      return;
+    }
+    CanonicalVariant canonicalVariant = gnomADLine.getCanonicalVariant();
+    if(indexBuilder.startsBlock(canonicalVariant))
+      writeBlock();
+    //the offset of the index is the offset of the block
+    indexBuilder.add(canonicalVariant, getBytesWritten(), getBytesWritten());
+    block.add(gnomADLine);
+  }
+
+  private void writeBlock() throws IOException {
+    if(!block.isEmpty()) {
+      write(GnomADBlockCodec.encode(block));
+      block.clear();
+    }
   }
 
   public void writeGnomADFileHeader(GnomADFileHeader header) throws IOException {
+    this.header = header;
     this.writeString(header.toString());
   }
+
+  /**
+   * Writes the index file (filename.idx) of the exome and genome sections that have been written
+   * @throws IOException if an I/O error occurs while writing the index, or if the index was not built
+   */
+  public void writeIndex() throws IOException {
+    if(indexBuilder == null || header == null || sections.size() != 2)
+      throw new IOException(MSG.EXT_NO_INDEX);
+    ExtractAnnotations.IndexData exome = sections.get(0);
+    ExtractAnnotations.IndexData genome = sections.get(1);
+    GnomADIndexWriter idx = new GnomADIndexWriter(getFilename()+".idx");
+    idx.writeGnomADIndexHeader(new GnomADIndexHeader(
+            header.getVersion(),
+            header.getExomePath(),
+            header.getGenomePath(),
+            header.getDate(),
+            exome.getNbVariants(),
+            genome.getNbVariants(),
+            exome.getNbBytes(),
+            genome.getNbBytes(),
+            bufferSize,
+            format
+    ));
+    idx.writeIndices(exome);
+    idx.writeIndices(genome);
+    idx.close();
+  }
 }
@@ -0,0 +1,115 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.constants.MSG;
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+import fr.inserm.u1078.tludwig.privas.utils.ExtractAnnotations;
+
+import java.util.TreeMap;
+
+/**
+ * Builds the indices of a section (exome or genome) of a GnomAD File, from the sorted lines and their offsets.
+ * Used while writing the GnomAD File, or when reading it to rebuild the index.
+ * <p>
+ * A new block is started every bufferSize positions (multiallelic variants share the same block), or,
+ * when the blocks are sized by variants, at the first new position after bufferSize variants :
+ * with this mode, the number of positions per block adapts to the density of variants of each chromosome.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GnomADIndexBuilder {
+  private final int bufferSize;
+  private final boolean byVariants;
+  private final Instance log;
+  private final TreeMap<Integer, TreeMap<Integer, Long>> indices;
+
+  private long read = 0;
+  private long nb = 0;
+  private long variants = 0;
+  private int prevPos = -1;
+  private long start = -1;
+  private long end = -1;
+
+  /**
+   * Creates a new GnomADIndexBuilder
+   * @param bufferSize the number of positions (or variants) per block
+   * @param byVariants if true, the blocks are sized by number of variants instead of number of positions
+   * @param log        the instance that will log unsorted variants
+   */
+  public GnomADIndexBuilder(int bufferSize, boolean byVariants, Instance log) {
+    this.bufferSize = bufferSize;
+    this.byVariants = byVariants;
+    this.log = log;
+    this.indices = new TreeMap<>();
+  }
+
+  /**
+   * Checks if a line will start a new block, without adding it
+   * @param canonicalVariant the variant of the line
+   * @return true if the line will be the first of a new block
+   */
+  public boolean startsBlock(CanonicalVariant canonicalVariant) {
+    TreeMap<Integer, Long> indexChrom = indices.get(canonicalVariant.getChrom());
+    if(indexChrom == null || indexChrom.isEmpty()) //new chromosome
+      return true;
+    if(prevPos == canonicalVariant.getPos()) //multiallelic variants are in the same block
+      return false;
+    return byVariants ? variants >= bufferSize : nb % bufferSize == 0;
+  }
+
+  /**
+   * Adds a line to the section
+   * @param canonicalVariant the variant of the line
+   * @param offset           the offset of the line (or of its block) in the GnomAD File
+   * @param next             the offset of the following line
+   * @return true if the line starts a new block
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  public boolean add(CanonicalVariant canonicalVariant, long offset, long next) {
+    boolean startsBlock = startsBlock(canonicalVariant);
+    read++;
+    if(start < 0)
+      start = offset;
+    end = next;
+
+    TreeMap<Integer, Long> indexChrom = indices.computeIfAbsent(canonicalVariant.getChrom(), k -> new TreeMap<>());
+    if(indexChrom.isEmpty()){//new chromosome
+      prevPos = -1;
+      nb = 0;
+      variants = 0;
+    }
+
+    if(canonicalVariant.getPos() < prevPos)
+      log.logWarning(MSG.EXT_UNSORTED(canonicalVariant, prevPos));
+
+    if (prevPos != canonicalVariant.getPos()) {//ignore multiallelic, just add the first index // Always false on new chrom
+      prevPos = canonicalVariant.getPos();
+      if(startsBlock) {
+        indexChrom.put(canonicalVariant.getPos(), offset);
+        variants = 0;
+      }
+      nb++; //++ after, or the first won't be added
+    }
+    variants++;
+    return startsBlock;
+  }
+
+  /**
+   * Sets the end of the section, when the lines are not written one by one
+   * @param offset the offset after the last byte of the section
+   */
+  public void end(long offset) {
+    if(start >= 0)
+      end = offset;
+  }
+
+  /**
+   * @return the indices of the section
+   */
+  public ExtractAnnotations.IndexData build() {
+    return new ExtractAnnotations.IndexData(read, indices, start < 0 ? 0 : end - start);
+  }
+}
@@ -26,8 +26,13 @@ public class GnomADIndexHeader {
   private final long exomeBytes;
   private final long genomeBytes;
   private final int bufferSize;
+  private final int format;
 
   public GnomADIndexHeader(String version, String[] exomePath, String[] genomePath, Date date, long exomeVariants, long genomeVariants, long exomeBytes, long genomeBytes, int bufferSize) {
+    this(version, exomePath, genomePath, date, exomeVariants, genomeVariants, exomeBytes, genomeBytes, bufferSize, GnomADFileHeader.FORMAT_LINES);
+  }
+
+  public GnomADIndexHeader(String version, String[] exomePath, String[] genomePath, Date date, long exomeVariants, long genomeVariants, long exomeBytes, long genomeBytes, int bufferSize, int format) {
     this.version = version;
     this.exomePath = exomePath;
     this.genomePath = genomePath;
@@ -37,6 +42,7 @@ public class GnomADIndexHeader {
     this.exomeBytes = exomeBytes;
     this.genomeBytes = genomeBytes;
     this.bufferSize = bufferSize;
+    this.format = format;
   }
 
   public static GnomADIndexHeader parseHeader(String s, Instance log) {
@@ -49,6 +55,7 @@ public class GnomADIndexHeader {
     long eB = -1;
     long gB = -1;
     int b = -1;
+    int fmt = GnomADFileHeader.FORMAT_LINES;
     for(String line : s.split("\n")){
       String[] f = line.split("\t");
       switch(f[0]){
@@ -103,10 +110,17 @@ public class GnomADIndexHeader {
             log.logWarning(MSG.cat(MSG.KO_PARSE_INT, line));
           }
           break;
+        case FileFormat.TAG_FORMAT:
+          try{
+            fmt = Integer.parseInt(f[1]);
+          } catch(NumberFormatException e) {
+            log.logWarning(MSG.cat(MSG.KO_PARSE_INT, line));
+          }
+          break;
       }
     }
 
-    return new GnomADIndexHeader(v, eP, gP, d, eV, gV, eB, gB, b);
+    return new GnomADIndexHeader(v, eP, gP, d, eV, gV, eB, gB, b, fmt);
   }
 
   @Override
@@ -119,7 +133,8 @@ public class GnomADIndexHeader {
             FileFormat.TAG_GENOME_VARIANTS + "\t" + genomeVariants + "\n" +
             FileFormat.TAG_EXOME_SIZE + "\t" + exomeBytes + "\t" + getExomeSize() + "\n" +
             FileFormat.TAG_GENOME_SIZE + "\t" + genomeBytes + "\t" + getGenomeSize() + "\n" +
-            FileFormat.TAG_BUFFER_SIZE + "\t" + bufferSize + "\t";
+            FileFormat.TAG_BUFFER_SIZE + "\t" + bufferSize + "\t" +
+            (format == GnomADFileHeader.FORMAT_LINES ? "" : "\n" + FileFormat.TAG_FORMAT + "\t" + format);
   }
 
   public String getVersion() {
@@ -175,4 +190,8 @@ public class GnomADIndexHeader {
   public int getBufferSize() {
     return bufferSize;
   }
+
+  public int getFormat() {
+    return format;
+  }
 }
@@ -4,7 +4,10 @@ import fr.inserm.u1078.tludwig.privas.instances.Instance;
 import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
 
 import java.io.IOException;
-import java.util.NavigableSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.TreeMap;
 
 /**
@@ -15,21 +18,26 @@ import java.util.TreeMap;
  * Checked for release on XXXX-XX-XX
  * Unit Test defined on   XXXX-XX-XX
  */
-public class GnomADIndexReader {
+public class GnomADIndexReader implements GnomADAnnotator {
 
   private final String filename;
   private GnomADIndexHeader header;
-  private final TreeMap<Integer, TreeMap<Integer, Long>> exomeIndices;
-  private final TreeMap<Integer, TreeMap<Integer, Long>> genomeIndices;
+  /**
+   * Sorted indices for each chromosome (indexed by chromosome number)
+   */
+  private final ChromIndex[] exomeIndices;
+  private final ChromIndex[] genomeIndices;
+  private final GnomADMappedFileReader mapped;
 
   private final Cache exomeCache;
   private final Cache genomeCache;
 
   public GnomADIndexReader(String filename, Instance log) throws IOException {
     this.filename = filename;
-    exomeIndices = new TreeMap<>();
-    genomeIndices = new TreeMap<>();
+    exomeIndices = new ChromIndex[MAX_CHROM];
+    genomeIndices = new ChromIndex[MAX_CHROM];
     loadIndex(log);
+    mapped = new GnomADMappedFileReader(filename);
     exomeCache = new Cache(exomeIndices);
     genomeCache = new Cache(genomeIndices);
   }
@@ -41,6 +49,24 @@ public class GnomADIndexReader {
 
   public GnomADIndexHeader getHeader() { return header;}
 
+  /**
+   * @return the memory-mapped GnomAD file
+   */
+  GnomADMappedFileReader getMappedFile() {
+    return mapped;
+  }
+
+  /**
+   * Gets the index of a chromosome
+   * @param exome true for the exome indices, false for the genome indices
+   * @param chrom the chromosome
+   * @return the index of the chromosome, or null if there is no variant on this chromosome
+   */
+  ChromIndex getChromIndex(boolean exome, int chrom) {
+    ChromIndex[] indices = exome ? exomeIndices : genomeIndices;
+    return chrom >= 0 && chrom < indices.length ? indices[chrom] : null;
+  }
+
   /**
    * Loads the data from the index file
    * @throws IOException  if an I/O error occurs when reading from the input files.
@@ -53,23 +79,24 @@ public class GnomADIndexReader {
     log.logDebug(header.toString());
     long re = loadIndices(exomeIndices, in);
     log.logDebug("Read ["+re+"] indices for exome");
-    //printSpan(exomeIndices, log);
     long rg = loadIndices(genomeIndices, in);
     log.logDebug("Read ["+rg+"] indices for exome");
-    //printSpan(genomeIndices, log);
     in.close();
     return re+rg;
   }
 
-  private static long loadIndices(TreeMap<Integer, TreeMap<Integer, Long>> indices, BinaryFileReader in) throws IOException {
+  private static long loadIndices(ChromIndex[] indices, BinaryFileReader in) throws IOException {
     long r = 0;
-    TreeMap<Integer, Long> chromMap;
     Index index;
     while(!(index = readIndex(in)).isNull()){
       r++;
-      chromMap = indices.computeIfAbsent(index.chrom, k -> new TreeMap<>());
-      chromMap.put(index.pos, index.offset);
+      if(indices[index.chrom] == null)
+        indices[index.chrom] = new ChromIndex();
+      indices[index.chrom].add(index.pos, index.offset);
     }
+    for(ChromIndex chromIndex : indices)
+      if(chromIndex != null)
+        chromIndex.trim();
     return r;
   }
 
@@ -79,27 +106,20 @@ public class GnomADIndexReader {
    * @return the GnomAD Annotation or null if non is found
    * @throws IOException  if an I/O error occurs when reading from the GnomAD File.
    */
+  @Override
   public GnomADLine[] fetch(CanonicalVariant canonical) throws IOException {
     return new GnomADLine[]{exomeCache.fetch(canonical), genomeCache.fetch(canonical)};
   }
 
+  /**
+   * Chromosomes are encoded on 1 byte
+   */
+  private static final int MAX_CHROM = 256;
+
   public static final String CHR = "Chr";
   public static final String FROM = "From";
   public static final String TO = "to";
 
-  public static void printSpan(TreeMap<Integer, TreeMap<Integer, Long>> map, Instance log){
-    for(Integer chr : map.navigableKeySet()){
-      log.logDebug(CHR + " " +chr);
-      TreeMap<Integer, Long> chromMap = map.get(chr);
-      NavigableSet<Integer> positions = chromMap.navigableKeySet();
-      if(positions.size() > 0){
-        int first = positions.iterator().next();
-        int last = positions.descendingIterator().next();
-        log.logDebug(String.join(" ", FROM, first+"", TO, last+""));
-      }
-    }
-  }
-
   private static Index readIndex(BinaryFileReader in) throws IOException {
     int chrom = in.readInt1();
     int pos = in.readInt4();
@@ -123,18 +143,154 @@ public class GnomADIndexReader {
     }
   }
 
+  /**
+   * Flat sorted index of a chromosome : positions[i] is the position of the first variant of the block starting at offsets[i]
+   */
+  static class ChromIndex {
+    private int[] positions = new int[1024];
+    private long[] offsets = new long[1024];
+    private int size = 0;
+
+    void add(int pos, long offset) {
+      if(size == positions.length) {
+        positions = Arrays.copyOf(positions, 2 * size);
+        offsets = Arrays.copyOf(offsets, 2 * size);
+      }
+      positions[size] = pos;
+      offsets[size] = offset;
+      size++;
+    }
+
+    /**
+     * Trims the arrays, and sorts them by position if the index file was not sorted
+     */
+    void trim() {
+      positions = Arrays.copyOf(positions, size);
+      offsets = Arrays.copyOf(offsets, size);
+      for(int i = 1; i < size; i++)
+        if(positions[i - 1] >= positions[i]) {
+          sort();
+          return;
+        }
+    }
+
+    /**
+     * Sorts the blocks by position, keeping the last offset for duplicated positions (as a TreeMap would)
+     */
+    private void sort() {
+      TreeMap<Integer, Long> sorted = new TreeMap<>();
+      for(int i = 0; i < size; i++)
+        sorted.put(positions[i], offsets[i]);
+      size = sorted.size();
+      positions = new int[size];
+      offsets = new long[size];
+      int i = 0;
+      for(Integer pos : sorted.navigableKeySet()) {
+        positions[i] = pos;
+        offsets[i] = sorted.get(pos);
+        i++;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    int getPosition(int block) {
+      return positions[block];
+    }
+
+    long getOffset(int block) {
+      return offsets[block];
+    }
+
+    /**
+     * Finds the block containing a position
+     * @param pos the position
+     * @return the index of the last block starting at or before pos, -1 if pos is before the first block
+     */
+    int floor(int pos) {
+      int i = Arrays.binarySearch(positions, 0, size, pos);
+      return i >= 0 ? i : -i - 2;
+    }
+  }
+
+  /**
+   * @return the format of the GnomAD file (GnomADFileHeader.FORMAT_LINES or GnomADFileHeader.FORMAT_BLOCKS)
+   */
+  int getFormat() {
+    return header.getFormat();
+  }
+
+  /**
+   * Reads a block of GnomADLines
+   * @param in       the memory-mapped GnomAD file
+   * @param format   the format of the GnomAD file
+   * @param offset   the offset of the first line of the block
+   * @param chrom    the chromosome of the block
+   * @param last     the first position of the next block
+   * @param lines    the list to fill with the lines of the block, in the order of the file
+   * @return the number of lines read
+   * @throws IOException if the block is corrupted
+   */
+  static int readBlock(GnomADMappedFileReader in, int format, long offset, int chrom, int last, List<GnomADLine> lines) throws IOException {
+    in.seek(offset);
+    if(format == GnomADFileHeader.FORMAT_BLOCKS)
+      return GnomADBlockCodec.decode(in, chrom, lines);
+    int nb = 0;
+    GnomADLine gnomADLine;
+    while(!(gnomADLine = in.readGnomADLine()).isNull()){
+      CanonicalVariant variant = gnomADLine.getCanonicalVariant();
+      if(variant.getChrom() != chrom || variant.getPos() >= last) { //stop at the next block, or change chrom
+        break;
+      }
+      lines.add(gnomADLine);
+      nb++;
+    }
+    return nb;
+  }
+
+  /**
+   * Reads a block of GnomADLines
+   * @param in       the memory-mapped GnomAD file
+   * @param format   the format of the GnomAD file
+   * @param offset   the offset of the first line of the block
+   * @param chrom    the chromosome of the block
+   * @param last     the first position of the next block
+   * @param variants the map to fill with the lines of the block
+   * @return the number of lines read
+   * @throws IOException if the block is corrupted
+   */
+  static int readBlock(GnomADMappedFileReader in, int format, long offset, int chrom, int last, TreeMap<CanonicalVariant, GnomADLine> variants) throws IOException {
+    ArrayList<GnomADLine> lines = new ArrayList<>();
+    int nb = readBlock(in, format, offset, chrom, last, lines);
+    for(GnomADLine line : lines)
+      variants.put(line.getCanonicalVariant(), line);
+    return nb;
+  }
+
+  /**
+   * Annotates variants in one sweep : the sorted variants are merge-joined against the blocks of the GnomAD file
+   * @param variants the variants, sorted in the order of CanonicalVariant (unsorted variants are still annotated, but less efficiently)
+   * @return for each variant, the exome and genome GnomAD Annotations (null when none is found)
+   * @throws IOException if a block is corrupted
+   */
+  public List<GnomADLine[]> fetchAll(Iterator<CanonicalVariant> variants) throws IOException {
+    return new GnomADSweep(this).fetchAll(variants);
+  }
+
   /**
    * The avoid accessible the GnomAD file for each request, the neighbouring results are stored
    */
   private class Cache {
-    private final TreeMap<Integer, TreeMap<Integer, Long>> indices;
+    private final ChromIndex[] indices;
     private final TreeMap<CanonicalVariant, GnomADLine> variants;
 
     private int chrom;
     private int first;
     private int last;
 
-    Cache(TreeMap<Integer, TreeMap<Integer, Long>> indices){
+    Cache(ChromIndex[] indices){
       this.indices = indices;
       variants = new TreeMap<>();
       init(-1);
@@ -155,39 +311,25 @@ public class GnomADIndexReader {
     private void load(int chrom, int pos) throws IOException {
       variants.clear();
 
-      TreeMap<Integer, Long> index = indices.get(chrom);
+      ChromIndex index = getChromIndex(indices == exomeIndices, chrom);
       if(index == null) { //No variant for this chrom, so the empty set covers to whole chrom
+        this.chrom = chrom;
         this.first = 1;
         this.last = Integer.MAX_VALUE;
         return;
       }
       init(chrom);
 
-      for(int i : index.navigableKeySet()){
-        if(i <= pos)
-          first = i;
-        else {
-          last = i;
-          break;
-        }
-      }
-
-      //here first = min(i, MAX_INT) and last = min(i, MAX_INT)
-      if(first == Integer.MAX_VALUE) //position before first index, return empty set
+      int block = index.floor(pos);
+      if(block + 1 < index.size)
+        last = index.positions[block + 1];
+      if(block < 0) //position before first index, return empty set
         return;
       //if(last == max_values) it means that we are in the last section for this chrom
 
-      long offset = index.get(first);
-      GnomADFileReader in = new GnomADFileReader(filename, offset);
-      GnomADLine gnomADLine;
-      while(!(gnomADLine = in.readGnomADLine()).isNull()){
-        CanonicalVariant variant = gnomADLine.getCanonicalVariant();
-        if(variant.getChrom() != chrom || variant.getPos() > last) { //stop if greater than last, or change chrom
-          break;
-        }
-        variants.put(variant, gnomADLine);
-      }
-      in.close();
+      readBlock(mapped, getFormat(), index.offsets[block], chrom, last, variants);
+      //only cover the block once it has been read, so that a corrupted block is not taken as empty
+      first = index.positions[block];
     }
 
     GnomADLine fetch(CanonicalVariant canonical) throws IOException {
@@ -0,0 +1,84 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.IOException;
+
+/**
+ * Decoder for the lines of GnomAD Files in the line format ({@link GnomADFileHeader#FORMAT_LINES}) <br/>
+ * Shared by the stream reader (GnomADFileReader) and the memory-mapped reader (GnomADMappedFileReader), that only provide the bytes
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+final class GnomADLineDecoder {
+  private GnomADLineDecoder() {
+  }
+
+  /**
+   * Source of the encoded values of the lines
+   */
+  interface Source {
+    int readInt1() throws IOException;
+
+    int readInt1or2() throws IOException;
+
+    int readInt4() throws IOException;
+
+    double readDouble3() throws IOException;
+  }
+
+  /**
+   * Reads the non-null frequencies (flag, then a 3-bytes value for each non-null frequency)
+   * @param in the source
+   * @return the 12 frequencies
+   * @throws IOException if an I/O error occurs
+   */
+  static double[] readFrequencies(Source in) throws IOException {
+    int flag = in.readInt1or2();
+
+    double[] frequencies = new double[12];
+    for(int i = 0; i < 12; i++)
+      if((flag & GnomADFileReader.FLAGS[i]) == GnomADFileReader.FLAGS[i])
+        frequencies[i] = in.readDouble3();
+    return frequencies;
+  }
+
+  /**
+   * Reads a sequence (length, then 4 bases per byte)
+   * @param in the source
+   * @return the sequence
+   * @throws IOException if an I/O error occurs
+   */
+  static String readSequence(Source in) throws IOException {
+    int len = in.readInt1or2();
+    char[] seq = new char[len];
+    for(int i = 0 ; i < len; i+=4) {
+      int val = in.readInt1();
+      for(int j = 0; j < 4 && i + j < len; j++)
+        seq[i + j] = GnomADLine.ACGT[(val >> (2 * j)) & 3].charAt(0);
+    }
+    return new String(seq);
+  }
+
+  /**
+   * Reads a GnomADLine
+   * @param in the source
+   * @return the GnomADLine
+   * @throws IOException if an I/O error occurs
+   */
+  static GnomADLine readGnomADLine(Source in) throws IOException {
+    int chrom = in.readInt1();
+    int pos = in.readInt4();
+    int flag = in.readInt1();
+
+    int length = GnomADLine.isLength1(flag) ? 1 : in.readInt1or2();
+    String alt = GnomADLine.getSeq(flag);
+    if(alt.isEmpty())
+      alt = readSequence(in);
+    double[] frequencies = GnomADLine.isNullFrequencies(flag) ? new double[12] : readFrequencies(in);
+    return new GnomADLine(new CanonicalVariant(chrom, pos, length, alt), frequencies);
+  }
+}
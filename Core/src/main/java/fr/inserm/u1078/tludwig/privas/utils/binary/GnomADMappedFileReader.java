@@ -0,0 +1,145 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader for binary version of GnomAD Files, backed by memory-mapped segments of the file <br/>
+ * Once the file is mapped, moving to an offset and decoding a line are done without system call,
+ * and the fields are decoded directly from the mapped bytes, without intermediate byte arrays.
+ * The file is mapped in segments of 1GB, as a MappedByteBuffer cannot exceed 2GB.
+ * An instance is not thread-safe (it has a current position), but several instances can share the same mapping
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GnomADMappedFileReader implements GnomADLineDecoder.Source {
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+  private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final String filename;
+  private final MappedByteBuffer[] segments;
+  private final long size;
+  private long position;
+
+  /**
+   * Maps a GnomAD binary file
+   *
+   * @param filename the name of the binary file
+   * @throws IOException if an I/O error occurs while mapping the file
+   */
+  public GnomADMappedFileReader(String filename) throws IOException {
+    this.filename = filename;
+    //the mappings remain valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      this.size = channel.size();
+      this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+      }
+    }
+    this.position = 0;
+  }
+
+  /**
+   * New reader over the same mapping, with its own position. Allows several threads to read the file, without mapping it again
+   *
+   * @param shared the reader that mapped the file
+   */
+  public GnomADMappedFileReader(GnomADMappedFileReader shared) {
+    this.filename = shared.filename;
+    this.segments = shared.segments;
+    this.size = shared.size;
+    this.position = 0;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Moves to an offset in the file
+   *
+   * @param position the offset of the next byte to read
+   */
+  public void seek(long position) {
+    this.position = position;
+  }
+
+  @Override
+  public int readInt1() {
+    long p = position++;
+    return segments[(int) (p >>> SEGMENT_BITS)].get((int) (p & SEGMENT_MASK)) & 0xFF;
+  }
+
+  @Override
+  public int readInt1or2() {
+    int small = readInt1();
+    if (small < 128)
+      return small;
+    return small + 128 * (readInt1() - 1);
+  }
+
+  @Override
+  public int readInt4() {
+    return (readInt1() << 24) | (readInt1() << 16) | (readInt1() << 8) | readInt1();
+  }
+
+  /**
+   * Reads bytes at the current position
+   *
+   * @param bytes the array to fill
+   */
+  void read(byte[] bytes) {
+    int done = 0;
+    while (done < bytes.length) {
+      ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+      segment.position((int) (position & SEGMENT_MASK));
+      int l = Math.min(bytes.length - done, segment.remaining());
+      segment.get(bytes, done, l);
+      done += l;
+      position += l;
+    }
+  }
+
+  /**
+   * Decodes a double in [0;1] encoded on 3 bytes (see BinaryFileReader.decodeDouble0to1)
+   *
+   * @return the decoded double
+   */
+  @Override
+  public double readDouble3() {
+    int a = readInt1();
+    int b = readInt1();
+    int c = readInt1();
+    return BinaryFileReader.decodeDouble0to1(a, b, c);
+  }
+
+  /**
+   * Reads the GnomADLine at the current position
+   *
+   * @return the GnomADLine, or GnomADLine.NULL after the end of the file
+   * @throws IOException declared by the shared GnomADLineDecoder (the mapped bytes are read without I/O)
+   */
+  public GnomADLine readGnomADLine() throws IOException {
+    if (position >= size)
+      return GnomADLine.NULL;
+    return GnomADLineDecoder.readGnomADLine(this);
+  }
+}
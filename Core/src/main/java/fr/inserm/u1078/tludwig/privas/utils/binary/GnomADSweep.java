@@ -0,0 +1,111 @@
+package fr.inserm.u1078.tludwig.privas.utils.binary;
+
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Annotation of sorted variants in one sweep <br/>
+ * The variants are merge-joined against the blocks of the GnomAD file : for each of the exome and genome sections,
+ * the current block is taken from a GnomADAnnotationService (as a sorted array of lines), and a cursor moves forward in the array as the variants increase.
+ * Moving back (unsorted variants) restarts the current block, or gets the previous one.
+ * An instance is not thread-safe, each thread must use its own sweep.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GnomADSweep implements GnomADAnnotator {
+  private final GnomADAnnotationService service;
+  private final Cursor exome;
+  private final Cursor genome;
+
+  /**
+   * Creates a new sweep over a GnomAD file, without shared cache
+   *
+   * @param index the index of the GnomAD file
+   */
+  public GnomADSweep(GnomADIndexReader index) {
+    this(new GnomADAnnotationService(index));
+  }
+
+  /**
+   * Creates a new sweep, with the blocks of a service (see {@link GnomADAnnotationService#newSweep()})
+   *
+   * @param service the annotation service of the GnomAD file
+   */
+  GnomADSweep(GnomADAnnotationService service) {
+    this.service = service;
+    this.exome = new Cursor(true);
+    this.genome = new Cursor(false);
+  }
+
+  /**
+   * Gets the GnomAD Annotation for the next variant of the sweep
+   *
+   * @param canonical the canonical representation of the variant
+   * @return the exome and genome GnomAD Annotations, null when none is found
+   * @throws IOException if a block is corrupted
+   */
+  @Override
+  public GnomADLine[] fetch(CanonicalVariant canonical) throws IOException {
+    return new GnomADLine[]{exome.fetch(canonical), genome.fetch(canonical)};
+  }
+
+  /**
+   * Annotates all the variants
+   *
+   * @param variants the variants, sorted in the order of CanonicalVariant
+   * @return for each variant, in the same order, the exome and genome GnomAD Annotations (null when none is found)
+   * @throws IOException if a block is corrupted
+   */
+  public List<GnomADLine[]> fetchAll(Iterator<CanonicalVariant> variants) throws IOException {
+    ArrayList<GnomADLine[]> ret = new ArrayList<>();
+    while(variants.hasNext())
+      ret.add(fetch(variants.next()));
+    return ret;
+  }
+
+  /**
+   * Cursor in a section (exome or genome) of the GnomAD file
+   */
+  private class Cursor {
+    private final boolean exome;
+    private GnomADAnnotationService.Block block = GnomADAnnotationService.EMPTY;
+    private int current = 0;
+
+    Cursor(boolean exome) {
+      this.exome = exome;
+    }
+
+    /**
+     * Moves to the variant
+     *
+     * @param canonical the variant
+     * @return the line of the variant, or null if there is none
+     * @throws IOException if a block is corrupted
+     */
+    GnomADLine fetch(CanonicalVariant canonical) throws IOException {
+      GnomADLine[] lines = block.lines;
+      if(!block.contains(canonical.getChrom(), canonical.getPos())) {
+        //the block is only replaced once it has been read, so that a corrupted block is not taken as empty
+        block = service.getBlock(exome, canonical.getChrom(), canonical.getPos());
+        lines = block.lines;
+        current = 0;
+      } else if(current > 0 && lines[current - 1].getCanonicalVariant().compareTo(canonical) >= 0)
+        current = 0; //moving back in the block
+
+      while(current < lines.length && lines[current].getCanonicalVariant().compareTo(canonical) < 0)
+        current++;
+      //for duplicated variants, the last line is kept (as in the other lookups)
+      GnomADLine ret = null;
+      for(int i = current; i < lines.length && lines[i].getCanonicalVariant().compareTo(canonical) == 0; i++)
+        ret = lines[i];
+      return ret;
+    }
+  }
+}
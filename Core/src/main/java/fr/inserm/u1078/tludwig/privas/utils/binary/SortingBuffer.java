@@ -1,14 +1,26 @@
 package fr.inserm.u1078.tludwig.privas.utils.binary;
 
+import fr.inserm.u1078.tludwig.privas.utils.CanonicalVariant;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Buffer for a GnomADFileWriter
  *
  * The order in canonical representation of variants is not automatically the same as in VCF Files.
- * This buffer also to sort the values before writing
+ * This buffer sorts the values before writing, whatever the order of the input, with a bounded memory (external merge sort) :
+ * when the buffer is full, its lines are sorted and spilled to a temporary run file (next to the output file).
+ * On flush, the runs and the remaining lines are merged (k-way merge). Lines with the same variant keep their input order.
+ * At most MAX_FAN_IN runs are read at the same time : if there are more runs, consecutive runs are first merged into larger runs (multi-pass merge).
+ * The runs are written without loss (the frequencies are stored as 8-bytes doubles, not in the 3-bytes format of the GnomAD files)
+ * Several buffers, filled concurrently, can be merged together in a single output (see {@link #merge(List, GnomADFileWriter)}),
+ * they share the memory : each buffer still being filled holds at most MAX / (number of buffers being filled) lines
  *
  * @author Thomas E. Ludwig (INSERM - U1078)
  * Started on             2021-08-30
@@ -17,27 +29,346 @@ import java.util.Collections;
  */
 public class SortingBuffer {
   private final GnomADFileWriter out;
+  private final File dir;
   private final ArrayList<GnomADLine> lines;
-  public static final int MAX = 4000;
-  public static final int THRESHOLD = 1000;
+  private final ArrayList<Run> runs;
+  private final int max;
+  private AtomicInteger filling;
+  /**
+   * Default maximum number of lines kept in memory
+   */
+  public static final int MAX = 500000;
+  /**
+   * Maximum number of runs read at the same time (each has an open file and a read buffer)
+   */
+  public static final int MAX_FAN_IN = 64;
 
   public SortingBuffer(GnomADFileWriter out) {
+    this(out, MAX);
+  }
+
+  /**
+   * Creates a new SortingBuffer
+   * @param out the writer of the sorted lines
+   * @param max the maximum number of lines kept in memory
+   */
+  public SortingBuffer(GnomADFileWriter out, int max) {
+    this(out, new File(out.getFilename()).getAbsoluteFile().getParentFile(), max);
+  }
+
+  /**
+   * Creates a new SortingBuffer without output, to be merged with other buffers
+   * @param dir     the directory of the temporary run files
+   * @param filling the number of buffers being filled, that share the memory
+   */
+  public SortingBuffer(File dir, AtomicInteger filling) {
+    this(null, dir, MAX);
+    this.filling = filling;
+    filling.incrementAndGet();
+  }
+
+  /**
+   * Creates a new SortingBuffer without output, to be merged with other buffers
+   * @param dir the directory of the temporary run files
+   * @param max the maximum number of lines kept in memory
+   */
+  public SortingBuffer(File dir, int max) {
+    this(null, dir, max);
+  }
+
+  private SortingBuffer(GnomADFileWriter out, File dir, int max) {
     this.out = out;
+    this.dir = dir;
+    this.max = max;
     lines = new ArrayList<>();
+    runs = new ArrayList<>();
   }
 
   public void add(GnomADLine line) throws IOException {
     lines.add(line);
-    if(lines.size() >= MAX){
-      Collections.sort(lines);
-      while(lines.size() > THRESHOLD)
-        out.writeGnomADLine(lines.remove(0));
+    if(lines.size() >= getMax())
+      spill();
+  }
+
+  /**
+   * @return the maximum number of lines kept in memory, that depends on the number of buffers sharing the memory
+   */
+  private int getMax() {
+    return filling == null ? max : max / Math.max(1, filling.get());
+  }
+
+  /**
+   * Sorts the lines in memory, and writes them to a new run
+   * @throws IOException if an I/O error occurs while writing the run
+   */
+  private void spill() throws IOException {
+    Collections.sort(lines);
+    File file = File.createTempFile("gnomad.", ".run", dir);
+    file.deleteOnExit();
+    try {
+      BinaryFileWriter run = new BinaryFileWriter(file.getAbsolutePath());
+      try {
+        for(GnomADLine line : lines)
+          writeLine(run, line);
+      } finally {
+        run.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      throw e;
+    }
+    runs.add(new Run(file, lines.size()));
+    lines.clear();
+  }
+
+  /**
+   * Spills the lines still in memory, so that the buffer holds no lines until it is merged
+   * @throws IOException if an I/O error occurs while writing the run
+   */
+  public void finish() throws IOException {
+    if(!lines.isEmpty())
+      spill();
+    if(filling != null) {
+      //the memory is left to the other buffers
+      filling.decrementAndGet();
+      filling = null;
     }
   }
 
+  /**
+   * Deletes the runs and empties the buffer, without writing the lines (when the conversion has failed)
+   */
+  public void discard() {
+    for(Run run : runs)
+      try {
+        run.delete();
+      } catch (IOException ignore) {
+        //the other runs are still deleted
+      }
+    runs.clear();
+    lines.clear();
+    if(filling != null) {
+      filling.decrementAndGet();
+      filling = null;
+    }
+  }
+
+  /**
+   * Writes all the lines in order, and empties the buffer
+   * @throws IOException if an I/O error occurs while reading the runs or writing the output
+   */
   public void flush() throws IOException {
     Collections.sort(lines);
-    while(!lines.isEmpty())
-      out.writeGnomADLine(lines.remove(0));
+    if(runs.isEmpty()) {
+      for(GnomADLine line : lines)
+        out.writeGnomADLine(line);
+      lines.clear();
+      return;
+    }
+    merge(Collections.singletonList(this), out);
+  }
+
+  /**
+   * Writes all the lines of several buffers in order, and empties the buffers
+   * Lines with the same variant are written in the order of the buffers, then in their input order
+   * @param buffers the buffers to merge
+   * @param out     the writer of the sorted lines
+   * @throws IOException if an I/O error occurs while reading the runs or writing the output
+   */
+  public static void merge(List<SortingBuffer> buffers, GnomADFileWriter out) throws IOException {
+    //all the runs, in the order of the buffers : equal lines are written in this order
+    ArrayList<Run> all = new ArrayList<>();
+    ArrayList<Run> intermediates = new ArrayList<>();
+    try {
+      for(SortingBuffer buffer : buffers) {
+        all.addAll(buffer.runs);
+        //the lines still in memory are the last run of the buffer
+        Collections.sort(buffer.lines);
+        if(!buffer.lines.isEmpty())
+          all.add(new Run(buffer.lines));
+      }
+      //consecutive runs are merged first, so that the order of the equal lines is kept
+      while(all.size() > MAX_FAN_IN) {
+        ArrayList<Run> merged = new ArrayList<>();
+        for(int i = 0; i < all.size(); i += MAX_FAN_IN) {
+          List<Run> group = all.subList(i, Math.min(all.size(), i + MAX_FAN_IN));
+          if(group.size() == 1) {
+            merged.add(group.get(0));
+            continue;
+          }
+          File file = File.createTempFile("gnomad.", ".run", buffers.get(0).dir);
+          file.deleteOnExit();
+          Run run = new Run(file, 0);
+          intermediates.add(run);
+          BinaryFileWriter writer = new BinaryFileWriter(file.getAbsolutePath());
+          try {
+            run.remaining = merge(group, line -> writeLine(writer, line));
+          } finally {
+            writer.close();
+          }
+          for(Run done : group)
+            done.delete();
+          merged.add(run);
+        }
+        all = merged;
+      }
+      merge(all, out::writeGnomADLine);
+    } finally {
+      for(Run run : intermediates)
+        run.delete();
+      for(SortingBuffer buffer : buffers) {
+        for(Run run : buffer.runs)
+          run.delete();
+        buffer.runs.clear();
+        buffer.lines.clear();
+      }
+    }
+  }
+
+  /**
+   * Merges runs (k-way merge)
+   * @param runs   the runs, lines with the same variant are written in the order of the runs
+   * @param output the receiver of the sorted lines
+   * @return the number of lines written
+   * @throws IOException if an I/O error occurs while reading the runs or writing the output
+   */
+  private static int merge(List<Run> runs, LineWriter output) throws IOException {
+    PriorityQueue<Run> heads = new PriorityQueue<>();
+    for(int n = 0; n < runs.size(); n++) {
+      Run run = runs.get(n);
+      run.n = n;
+      if(run.next())
+        heads.add(run);
+    }
+    int written = 0;
+    while(!heads.isEmpty()) {
+      Run run = heads.poll();
+      output.write(run.head);
+      written++;
+      if(run.next())
+        heads.add(run);
+    }
+    return written;
+  }
+
+  /**
+   * Writes a line in a run
+   * @param run  the run
+   * @param line the line
+   * @throws IOException if an I/O error occurs
+   */
+  private static void writeLine(BinaryFileWriter run, GnomADLine line) throws IOException {
+    CanonicalVariant variant = line.getCanonicalVariant();
+    run.writeInt1(variant.getChrom());
+    run.writeInt4(variant.getPos());
+    run.writeInt4(variant.getLength());
+    //the alt is length-prefixed, as it can be the delimiter of the strings ('*' for spanning deletions)
+    String alt = variant.getAlt();
+    run.writeInt1or2(alt.length());
+    for(int i = 0; i < alt.length(); i++)
+      run.writeChar(alt.charAt(i));
+    double[] frequencies = line.getFrequencies();
+    int flag = 0;
+    for(int i = 0; i < 12; i++)
+      if(frequencies[i] != 0)
+        flag += GnomADFileReader.FLAGS[i];
+    run.writeInt2(flag);
+    for(int i = 0; i < 12; i++)
+      if(frequencies[i] != 0)
+        run.writeDouble(frequencies[i]);
+  }
+
+  /**
+   * Reads a line from a run
+   * @param run the run
+   * @return the line
+   * @throws IOException if an I/O error occurs
+   */
+  private static GnomADLine readLine(BinaryFileReader run) throws IOException {
+    int chrom = run.readInt1();
+    int pos = run.readInt4();
+    int length = run.readInt4();
+    char[] alt = new char[run.readInt1or2()];
+    for(int i = 0; i < alt.length; i++)
+      alt[i] = run.readChar();
+    int flag = run.readInt2();
+    double[] frequencies = new double[12];
+    for(int i = 0; i < 12; i++)
+      if((flag & GnomADFileReader.FLAGS[i]) != 0)
+        frequencies[i] = run.readDouble8();
+    return new GnomADLine(new CanonicalVariant(chrom, pos, length, new String(alt)), frequencies);
+  }
+
+  /**
+   * Receiver of the sorted lines of a merge
+   */
+  private interface LineWriter {
+    void write(GnomADLine line) throws IOException;
+  }
+
+  /**
+   * Sorted run of lines, on disk or in memory
+   */
+  private static class Run implements Comparable<Run> {
+    private int n;
+    private final File file;
+    private final ArrayList<GnomADLine> lines;
+    private int remaining;
+    private BinaryFileReader in;
+    private GnomADLine head;
+
+    Run(File file, int size) {
+      this.file = file;
+      this.lines = null;
+      this.remaining = size;
+    }
+
+    Run(ArrayList<GnomADLine> lines) {
+      this.file = null;
+      this.lines = lines;
+      this.remaining = lines.size();
+    }
+
+    /**
+     * Moves to the next line of the run
+     * @return false if there are no more lines
+     * @throws IOException if an I/O error occurs while reading the run
+     */
+    boolean next() throws IOException {
+      if(remaining == 0) {
+        head = null;
+        if(in != null)
+          in.close();
+        return false;
+      }
+      if(lines != null)
+        head = lines.get(lines.size() - remaining);
+      else {
+        if(in == null)
+          in = new BinaryFileReader(file.getAbsolutePath());
+        head = readLine(in);
+      }
+      remaining--;
+      return true;
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    void delete() throws IOException {
+      try {
+        if(in != null)
+          in.close();
+      } finally {
+        if(file != null)
+          file.delete();
+      }
+    }
+
+    @Override
+    public int compareTo(Run that) {
+      int c = this.head.compareTo(that.head);
+      //equal lines are written in the order of the runs
+      return c != 0 ? c : Integer.compare(this.n, that.n);
+    }
   }
 }
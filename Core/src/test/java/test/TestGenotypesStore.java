@@ -0,0 +1,119 @@
+package test;
+
+import fr.inserm.u1078.tludwig.privas.instances.Instance;
+import fr.inserm.u1078.tludwig.privas.utils.BedFile;
+import fr.inserm.u1078.tludwig.privas.utils.GenotypesFileHandler;
+import fr.inserm.u1078.tludwig.privas.utils.UniversalReader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the extraction from the Genotypes Store gives the same lines as the extraction from the Genotype File (text),
+ * with several workers (run with more than one processor, for instance -XX:ActiveProcessorCount=8)
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class TestGenotypesStore {
+  private static final int NB_LINES = 20000;
+  private static final int NB_SAMPLES = 300;
+  private static final double[] FREQUENCIES = {0, 0, 0, 1e-5, 0.000123, 0.0009, 0.001, 0.002, 0.0153, 0.3, 0.99};
+
+  public static void main(String[] args) throws Exception {
+    if (Runtime.getRuntime().availableProcessors() < 2)
+      System.err.println("Only one processor : the extraction from the store will use a single worker");
+    File dir = Files.createTempDirectory("privas.store.").toFile();
+    File store = new File(dir, "store.genotypes.gz");
+    File text = new File(dir, "text.genotypes.gz");
+    writeGenotypeFile(store);
+    Files.copy(store.toPath(), text.toPath());
+    GenotypesFileHandler.buildGenotypesStore(store.getPath());
+    //a directory in place of the store : the extraction parses the Genotype File
+    File blocker = new File(GenotypesFileHandler.getGenotypesStoreFilename(text.getPath()));
+    //noinspection ResultOfMethodCallIgnored
+    blocker.mkdir();
+    //noinspection ResultOfMethodCallIgnored
+    new File(blocker, "not.a.store").createNewFile();
+
+    Instance instance = new Instance() {
+    };
+    BedFile bed = new BedFile();
+    bed.add("1\t5000\t600000");
+    bed.add("2\t0\t900000");
+    int k = 0;
+    int errors = 0;
+    for (double maf : new double[]{1.0, 0.01, 0.001})
+      for (String subpop : new String[]{"AFR", "NFE"})
+        for (String csq : new String[]{"missense_variant", "intergenic_variant"})
+          for (boolean snv : new boolean[]{false, true})
+            for (BedFile b : new BedFile[]{new BedFile(), bed}) {
+              File fromStore = new File(dir, "store." + k + ".gz");
+              File fromText = new File(dir, "text." + k + ".gz");
+              int n = GenotypesFileHandler.extractGenotypesToFile(store.getPath(), fromStore.getPath(), NB_LINES, maf, subpop, maf, csq, snv, b, "salt", instance, null);
+              GenotypesFileHandler.extractGenotypesToFile(text.getPath(), fromText.getPath(), NB_LINES, maf, subpop, maf, csq, snv, b, "salt", instance, null);
+              boolean same = readLines(fromStore).equals(readLines(fromText));
+              if (!same)
+                errors++;
+              System.out.println("Extraction " + k + " : " + n + " lines " + (same ? "OK" : "DIFFERENT"));
+              k++;
+            }
+    System.out.println(errors == 0 ? "All the extractions are identical" : errors + " extractions are different");
+    delete(dir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null)
+      for (File child : children)
+        delete(child);
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+  /**
+   * Writes a random Genotype File (variants in canonical notation, consequence level, gene, 24 GnomAD frequencies and the genotypes)
+   *
+   * @param file the Genotype File
+   * @throws IOException if an I/O error occurs while writing the file
+   */
+  private static void writeGenotypeFile(File file) throws IOException {
+    Random random = new Random(20000);
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file))));
+    out.println("#GNOMAD_FILENAME\tnone");
+    int pos = 1000;
+    int chrom = 1;
+    for (int l = 0; l < NB_LINES; l++) {
+      if (l == NB_LINES / 2) {
+        chrom = 2;
+        pos = 1000;
+      }
+      pos += 1 + random.nextInt(60);
+      StringBuilder line = new StringBuilder();
+      line.append(chrom).append(":").append(pos).append(random.nextInt(4) == 0 ? "+3:-" : "+1:A");
+      line.append("\t").append(random.nextInt(12));
+      line.append("\tG").append(random.nextInt(100));
+      for (int f = 0; f < 24; f++)
+        line.append("\t").append(FREQUENCIES[random.nextInt(FREQUENCIES.length)]);
+      for (int s = 0; s < NB_SAMPLES; s++)
+        line.append("\t").append(random.nextInt(4) - 1);
+      out.println(line);
+    }
+    out.close();
+  }
+
+  private static ArrayList<String> readLines(File file) throws IOException {
+    ArrayList<String> lines = new ArrayList<>();
+    UniversalReader in = new UniversalReader(file.getPath());
+    String line;
+    while ((line = in.readLine()) != null)
+      lines.add(line);
+    in.close();
+    return lines;
+  }
+}
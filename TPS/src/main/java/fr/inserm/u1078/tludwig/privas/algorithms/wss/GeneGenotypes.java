@@ -0,0 +1,69 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import java.util.ArrayList;
+
+/**
+ * Merged genotypes of a genomic region (gene), parsed once as primitive arrays <br/>
+ * For each variant, the genotypes (-1 for missing, 0, 1 or 2) of the affected individuals are followed by the genotypes of the unaffected individuals
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+public class GeneGenotypes {
+  /**
+   * The name of the genomic region (gene)
+   */
+  private final String gene;
+  /**
+   * The name of each variant
+   */
+  private final ArrayList<String> variants;
+  /**
+   * The genotypes of each variant
+   */
+  private final ArrayList<byte[]> genotypes;
+
+  /**
+   * Constructs a new empty GeneGenotypes
+   *
+   * @param gene the name of the genomic region
+   */
+  public GeneGenotypes(String gene) {
+    this.gene = gene;
+    this.variants = new ArrayList<>();
+    this.genotypes = new ArrayList<>();
+  }
+
+  /**
+   * Adds a variant
+   *
+   * @param variant   the name of the variant
+   * @param genotypes the genotypes of all the individuals
+   */
+  public void add(String variant, byte[] genotypes) {
+    this.variants.add(variant);
+    this.genotypes.add(genotypes);
+  }
+
+  public String getGene() {
+    return gene;
+  }
+
+  public ArrayList<String> getVariants() {
+    return variants;
+  }
+
+  public ArrayList<byte[]> getGenotypes() {
+    return genotypes;
+  }
+
+  public int size() {
+    return variants.size();
+  }
+
+  public boolean isEmpty() {
+    return variants.isEmpty();
+  }
+}
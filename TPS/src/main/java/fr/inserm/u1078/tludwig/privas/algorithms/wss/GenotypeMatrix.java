@@ -0,0 +1,102 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+/**
+ * Genotypes of a gene (variants x samples), as used by WSS <br/>
+ * The genotypes are always 0, 1 or 2 (missing genotypes are replaced beforehand).
+ * Implementations only differ by their storage, and must produce the same sums, in the same order.
+ * build(int[][], int) chooses the implementation with the smaller footprint :
+ * <ul>
+ *   <li>PackedGenotypes : dense bitplanes, for genes with frequent variants</li>
+ *   <li>SparseGenotypes : list of carriers for each variant, for genes with rare variants</li>
+ * </ul>
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+abstract class GenotypeMatrix {
+  /**
+   * number of variants (rows)
+   */
+  private final int nbVariants;
+  /**
+   * number of samples (columns)
+   */
+  private final int nbSamples;
+
+  GenotypeMatrix(int nbVariants, int nbSamples) {
+    this.nbVariants = nbVariants;
+    this.nbSamples = nbSamples;
+  }
+
+  /**
+   * Builds the GenotypeMatrix with the smaller memory footprint
+   *
+   * @param genotypes the genotypes as a matrix [variant][sample]
+   * @param nbSamples number of samples
+   * @return a SparseGenotypes if the carriers are rare enough, a PackedGenotypes otherwise
+   */
+  static GenotypeMatrix build(int[][] genotypes, int nbSamples) {
+    long nbCarriers = 0;
+    for (int[] geno : genotypes)
+      for (int g : geno)
+        if (g != 0)
+          nbCarriers++;
+    if (SparseGenotypes.getFootprint(genotypes.length, nbCarriers) < PackedGenotypes.getFootprint(genotypes.length, nbSamples))
+      return new SparseGenotypes(genotypes, nbSamples, (int) nbCarriers);
+    PackedGenotypes packed = new PackedGenotypes(genotypes.length, nbSamples);
+    for (int v = 0; v < genotypes.length; v++)
+      packed.setVariant(v, genotypes[v]);
+    return packed;
+  }
+
+  /**
+   * Gets a genotype
+   *
+   * @param variant the index of the variant
+   * @param sample  the index of the sample
+   * @return the genotype (0, 1 or 2)
+   */
+  abstract int get(int variant, int sample);
+
+  /**
+   * Counts the alternate alleles of a variant, among the samples that are not flagged in a bitset
+   *
+   * @param variant  the index of the variant
+   * @param affected the bitset of the samples to ignore (the affected samples)
+   * @return number of alternate alleles observed in the unaffected samples
+   */
+  abstract int countUnaffectedAlleles(int variant, long[] affected);
+
+  /**
+   * Adds the contribution of a variant to the genetic score of each sample. Only carriers of the alternate allele are visited
+   *
+   * @param variant  the index of the variant
+   * @param hetScore the score to add to heterozygous samples
+   * @param homScore the score to add to samples homozygous to the alternate allele
+   * @param gammas   the genetic scores of the samples
+   */
+  abstract void addScores(int variant, double hetScore, double homScore, double[] gammas);
+
+  /**
+   * Unpacks the genotypes
+   *
+   * @return the genotypes as a matrix [variant][sample]
+   */
+  int[][] unpack() {
+    int[][] genotypes = new int[nbVariants][nbSamples];
+    for (int v = 0; v < nbVariants; v++)
+      for (int i = 0; i < nbSamples; i++)
+        genotypes[v][i] = get(v, i);
+    return genotypes;
+  }
+
+  int getNbVariants() {
+    return nbVariants;
+  }
+
+  int getNbSamples() {
+    return nbSamples;
+  }
+}
@@ -0,0 +1,148 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import fr.inserm.u1078.tludwig.privas.constants.Constants;
+
+/**
+ * Genotypes of a gene, packed as two bitplanes <br/>
+ * For each variant, one bitset flags the heterozygous samples, another one flags the samples homozygous to the alternate allele.
+ * As the genotypes used by WSS are always 0, 1 or 2 (missing genotypes are replaced beforehand), 2 bits per genotype are enough,
+ * where an int[][] matrix uses 32 bits. Counting alleles over a set of samples is then done with a popcount over 64 samples at a time.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class PackedGenotypes extends GenotypeMatrix {
+  /**
+   * for each variant, the bitset of heterozygous samples
+   */
+  private final long[][] het;
+  /**
+   * for each variant, the bitset of samples homozygous to the alternate allele
+   */
+  private final long[][] hom;
+
+  /**
+   * Constructs a new PackedGenotypes, where all the genotypes are homozygous to the reference allele
+   *
+   * @param nbVariants number of variants
+   * @param nbSamples  number of samples
+   */
+  PackedGenotypes(int nbVariants, int nbSamples) {
+    super(nbVariants, nbSamples);
+    int nbWords = getNbWords(nbSamples);
+    this.het = new long[nbVariants][nbWords];
+    this.hom = new long[nbVariants][nbWords];
+  }
+
+  /**
+   * Number of 64-bits words needed to store one bit per sample
+   *
+   * @param nbSamples number of samples
+   * @return ceil(nbSamples / 64)
+   */
+  static int getNbWords(int nbSamples) {
+    return (nbSamples + 63) >>> 6;
+  }
+
+  /**
+   * Approximate memory footprint
+   *
+   * @param nbVariants number of variants
+   * @param nbSamples  number of samples
+   * @return size in bytes (including the headers of the arrays)
+   */
+  static long getFootprint(int nbVariants, int nbSamples) {
+    return 2L * nbVariants * (16 + 8L * getNbWords(nbSamples));
+  }
+
+  /**
+   * Converts an array of boolean to a bitset
+   *
+   * @param bs the array of boolean
+   * @return the bitset, where bit i is set if bs[i] is true
+   */
+  static long[] toBits(boolean[] bs) {
+    long[] bits = new long[getNbWords(bs.length)];
+    for (int i = 0; i < bs.length; i++)
+      if (bs[i])
+        bits[i >>> 6] |= 1L << i;
+    return bits;
+  }
+
+  /**
+   * Sets the genotypes of a variant
+   *
+   * @param variant   the index of the variant
+   * @param genotypes the genotypes of each sample (0, 1 or 2)
+   */
+  void setVariant(int variant, int[] genotypes) {
+    for (int i = 0; i < genotypes.length; i++)
+      set(variant, i, genotypes[i]);
+  }
+
+  /**
+   * Sets a genotype
+   *
+   * @param variant  the index of the variant
+   * @param sample   the index of the sample
+   * @param genotype the genotype (0, 1 or 2)
+   */
+  void set(int variant, int sample, int genotype) {
+    long bit = 1L << sample;
+    int word = sample >>> 6;
+    het[variant][word] &= ~bit;
+    hom[variant][word] &= ~bit;
+    if (genotype == Constants.GENO_HET)
+      het[variant][word] |= bit;
+    else if (genotype == Constants.GENO_ALT)
+      hom[variant][word] |= bit;
+  }
+
+  @Override
+  int get(int variant, int sample) {
+    long bit = 1L << sample;
+    int word = sample >>> 6;
+    if ((hom[variant][word] & bit) != 0)
+      return Constants.GENO_ALT;
+    if ((het[variant][word] & bit) != 0)
+      return Constants.GENO_HET;
+    return Constants.GENO_REF;
+  }
+
+  @Override
+  int countUnaffectedAlleles(int variant, long[] affected) {
+    final long[] he = het[variant];
+    final long[] ho = hom[variant];
+    int count = 0;
+    for (int w = 0; w < he.length; w++) {
+      long unaffected = ~affected[w];
+      count += Long.bitCount(he[w] & unaffected) + 2 * Long.bitCount(ho[w] & unaffected);
+    }
+    return count;
+  }
+
+  @Override
+  void addScores(int variant, double hetScore, double homScore, double[] gammas) {
+    addScores(het[variant], hetScore, gammas);
+    addScores(hom[variant], homScore, gammas);
+  }
+
+  /**
+   * Adds a score to the genetic score of each sample flagged in a bitset
+   *
+   * @param bits   the bitset
+   * @param score  the score to add
+   * @param gammas the genetic scores of the samples
+   */
+  private static void addScores(long[] bits, double score, double[] gammas) {
+    for (int w = 0; w < bits.length; w++) {
+      long word = bits[w];
+      while (word != 0) {
+        gammas[(w << 6) + Long.numberOfTrailingZeros(word)] += score;
+        word &= word - 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import java.util.Arrays;
+
+/**
+ * Counter-based stream of shuffled phenotypes <br/>
+ * Permutation k only depends on the seed and on k : any thread can regenerate any permutation on demand,
+ * so that no permutation buffer is shared, and the results do not depend on the number of threads.
+ * Each permutation has its own SplitMix64 generator, seeded from (seed, k), and draws the affected individuals with Floyd's sampling algorithm,
+ * directly in the bitset (bit i set when individual i is affected).
+ * The class has no mutable state and is thread-safe.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class PermutationStream {
+  /**
+   * SplitMix64 increment (odd approximation of 2^64 / golden ratio)
+   */
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private final long seed;
+  private final int nbUnaffected;
+  private final int nbAffected;
+
+  /**
+   * Constructs a new PermutationStream
+   *
+   * @param nbUnaffected number of unaffected individuals
+   * @param nbAffected   number of affected individuals
+   * @param seed         random seed
+   */
+  PermutationStream(int nbUnaffected, int nbAffected, long seed) {
+    this.nbUnaffected = nbUnaffected;
+    this.nbAffected = nbAffected;
+    this.seed = mix64(seed);
+  }
+
+  /**
+   * Number of 64-bits words in each shuffled bitset
+   *
+   * @return ceil((nbUnaffected + nbAffected) / 64)
+   */
+  int getNbWords() {
+    return PackedGenotypes.getNbWords(nbUnaffected + nbAffected);
+  }
+
+  /**
+   * overwrites a bitset with the permutation number k : nbUnaffected bits unset and nbAffected bits set
+   *
+   * @param k        the index of the permutation
+   * @param shuffled the bitset to fill in place
+   */
+  void get(long k, long[] shuffled) {
+    final int size = nbUnaffected + nbAffected;
+    //draws the smaller group
+    final boolean invert = nbAffected > nbUnaffected;
+    final int m = invert ? nbUnaffected : nbAffected;
+    long state = mix64(seed + k * GOLDEN_GAMMA);
+    Arrays.fill(shuffled, 0L);
+    //Floyd : for j in [size-m;size[, draw t in [0;j], add t if absent, j otherwise
+    for (int j = size - m; j < size; j++) {
+      state += GOLDEN_GAMMA;
+      int t = nextInt(mix64(state), j + 1);
+      if ((shuffled[t >>> 6] & (1L << t)) != 0)
+        t = j;
+      shuffled[t >>> 6] |= 1L << t;
+    }
+    if (invert) {
+      for (int w = 0; w < shuffled.length; w++)
+        shuffled[w] = ~shuffled[w];
+      //unset the bits after the last individual
+      int tail = size & 63;
+      if (tail != 0)
+        shuffled[shuffled.length - 1] &= (1L << tail) - 1;
+    }
+  }
+
+  /**
+   * Maps a random long to [0;bound[ (multiply-shift on the 32 upper bits, the bias is at most bound/2^32)
+   *
+   * @param r     random long
+   * @param bound upper bound (exclusive)
+   * @return a random integer in [0;bound[
+   */
+  private static int nextInt(long r, int bound) {
+    return (int) (((r >>> 32) * bound) >>> 32);
+  }
+
+  /**
+   * SplitMix64 finalizer
+   *
+   * @param z the value to mix
+   * @return the mixed value
+   */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
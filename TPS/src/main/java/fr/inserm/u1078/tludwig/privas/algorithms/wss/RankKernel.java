@@ -0,0 +1,102 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free computation of the rank sum of the affected individuals <br/>
+ * The gammas of all the individuals and the gammas of the affected individuals are sorted in two primitive arrays,
+ * then both arrays are walked together, to count the affected individuals in each group of ex aequo.
+ * Each thread owns its scratch buffers, so that a permutation does not allocate any object.
+ * The result is identical to RankedGammaList.getRanking() (same ranks, summed in the same order), which is kept as a reference.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class RankKernel {
+  /**
+   * One kernel per thread
+   */
+  private static final ThreadLocal<RankKernel> LOCAL = ThreadLocal.withInitial(RankKernel::new);
+
+  /**
+   * genetic scores of the individuals
+   */
+  private double[] gammas = new double[0];
+  /**
+   * sorted genetic scores of all the individuals
+   */
+  private double[] sorted = new double[0];
+  /**
+   * sorted genetic scores of the affected individuals
+   */
+  private double[] affected = new double[0];
+
+  private RankKernel() {
+  }
+
+  /**
+   * Gets the kernel of the current thread
+   *
+   * @return the RankKernel owned by the current thread
+   */
+  static RankKernel get() {
+    return LOCAL.get();
+  }
+
+  /**
+   * Gets the scratch array of genetic scores, with the first n values set to 0
+   *
+   * @param n number of individuals
+   * @return an array of at least n values, to fill before calling getRanking(n, affected)
+   */
+  double[] getGammas(int n) {
+    if (gammas.length < n) {
+      gammas = new double[n];
+      sorted = new double[n];
+      affected = new double[n];
+    } else
+      Arrays.fill(gammas, 0, n, 0);
+    return gammas;
+  }
+
+  /**
+   * summing the rank done like in wilcoxon :
+   * first is 1
+   * when there are ex aequo, each is ranked as the mean of the ranks
+   *
+   * @param n           number of individuals
+   * @param affectedBits the bitset of the affected individuals
+   * @return the rank sum of the affected individuals
+   */
+  double getRanking(int n, long[] affectedBits) {
+    int nbAffected = 0;
+    for (int i = 0; i < n; i++) {
+      sorted[i] = gammas[i];
+      if ((affectedBits[i >>> 6] & (1L << i)) != 0)
+        affected[nbAffected++] = gammas[i];
+    }
+    Arrays.sort(sorted, 0, n);
+    Arrays.sort(affected, 0, nbAffected);
+
+    double x = 0;
+    int a = 0;
+    int start = 0;
+    while (start < n) {
+      final double value = sorted[start];
+      int end = start + 1;
+      while (end < n && sorted[end] == value)
+        end++;
+      int nbAffectedEx = 0;
+      while (a < nbAffected && affected[a] == value) {
+        nbAffectedEx++;
+        a++;
+      }
+      //same formula as Gamma.getSum(), with ranks starting at 1
+      x += nbAffectedEx * ((start + 1) + 0.5 * ((end - start) - 1));
+      start = end;
+    }
+    return x;
+  }
+}
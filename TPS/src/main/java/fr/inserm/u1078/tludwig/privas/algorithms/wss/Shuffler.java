@@ -1,9 +1,11 @@
 package fr.inserm.u1078.tludwig.privas.algorithms.wss;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
  * Provides shuffles of (un)Affected phenotypes
+ * Shuffles are provided as bitsets (bit i set when individual i is affected), filled in place to avoid allocations
  *
  * @author Thomas E. Ludwig (INSERM - U1078)
  * Started on             2021-05-21
@@ -28,16 +30,24 @@ class Shuffler {
   }
 
   /**
-   * produces SIZE random boolean arrays with nbUnaffected FALSE values and nbAffected TRUE values
+   * overwrites a bitset with a random bitset having nbUnaffected bits unset and nbAffected bits set (bit i set when individual i is affected)
+   * The random draws are the same as in getNext(), so both methods produce the same permutations
    *
-   * @param size number of arrays to generate
-   * @return array of size boolean arrays
+   * @param shuffled the bitset to fill in place
    */
-  boolean[][] getNext(int size) {
-    boolean[][] b = new boolean[size][];
-    for (int i = 0; i < size; i++)
-      b[i] = getNext();
-    return b;
+  void getNext(long[] shuffled) {
+    int nbFalse = this.nbUnaffected;
+    int nbTrue = this.nbAffected;
+    int size = nbFalse + nbTrue;
+    Arrays.fill(shuffled, 0L);
+    for (int i = 0; i < size; i++) {
+      int r = random.nextInt(nbFalse + nbTrue) + 1;
+      if (r > nbFalse) {
+        shuffled[i >>> 6] |= 1L << i;
+        nbTrue--;
+      } else
+        nbFalse--;
+    }
   }
 
   /**
@@ -0,0 +1,90 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import fr.inserm.u1078.tludwig.privas.constants.Constants;
+
+/**
+ * Genotypes of a gene, stored as the list of carriers of each variant (CSR layout) <br/>
+ * For rare variants, almost every genotype is 0 : only the non-reference genotypes are stored, so that
+ * a permutation costs O(carriers) instead of O(variants x samples).
+ * The carriers of variant v are carriers[offsets[v]] to carriers[offsets[v+1] - 1], in increasing sample order.
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class SparseGenotypes extends GenotypeMatrix {
+  /**
+   * for each variant, the index of its first carrier in carriers/genotypes (with an extra value for the end of the last variant)
+   */
+  private final int[] offsets;
+  /**
+   * the samples carrying an alternate allele
+   */
+  private final int[] carriers;
+  /**
+   * the genotype of each carrier (1 or 2)
+   */
+  private final byte[] genotypes;
+
+  /**
+   * Constructs a new SparseGenotypes
+   *
+   * @param genotypes  the genotypes as a matrix [variant][sample]
+   * @param nbSamples  number of samples
+   * @param nbCarriers number of non-reference genotypes in the matrix
+   */
+  SparseGenotypes(int[][] genotypes, int nbSamples, int nbCarriers) {
+    super(genotypes.length, nbSamples);
+    this.offsets = new int[genotypes.length + 1];
+    this.carriers = new int[nbCarriers];
+    this.genotypes = new byte[nbCarriers];
+    int c = 0;
+    for (int v = 0; v < genotypes.length; v++) {
+      this.offsets[v] = c;
+      for (int i = 0; i < nbSamples; i++)
+        if (genotypes[v][i] != Constants.GENO_REF) {
+          this.carriers[c] = i;
+          this.genotypes[c] = (byte) genotypes[v][i];
+          c++;
+        }
+    }
+    this.offsets[genotypes.length] = c;
+  }
+
+  /**
+   * Approximate memory footprint
+   *
+   * @param nbVariants number of variants
+   * @param nbCarriers number of non-reference genotypes
+   * @return size in bytes
+   */
+  static long getFootprint(int nbVariants, long nbCarriers) {
+    return 4L * (nbVariants + 1) + 5L * nbCarriers;
+  }
+
+  @Override
+  int get(int variant, int sample) {
+    for (int c = offsets[variant]; c < offsets[variant + 1]; c++)
+      if (carriers[c] == sample)
+        return genotypes[c];
+    return Constants.GENO_REF;
+  }
+
+  @Override
+  int countUnaffectedAlleles(int variant, long[] affected) {
+    int count = 0;
+    for (int c = offsets[variant]; c < offsets[variant + 1]; c++) {
+      final int i = carriers[c];
+      if ((affected[i >>> 6] & (1L << i)) == 0)
+        count += genotypes[c];
+    }
+    return count;
+  }
+
+  @Override
+  void addScores(int variant, double hetScore, double homScore, double[] gammas) {
+    for (int c = offsets[variant]; c < offsets[variant + 1]; c++)
+      gammas[carriers[c]] += genotypes[c] == Constants.GENO_HET ? hetScore : homScore;
+  }
+}
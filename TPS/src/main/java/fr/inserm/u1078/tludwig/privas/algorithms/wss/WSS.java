@@ -9,7 +9,6 @@ import fr.inserm.u1078.tludwig.privas.utils.UniversalReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
 
 /**
  * The actual computation of the WSS algorithm for a given gene
@@ -36,9 +35,9 @@ public class WSS {
   //input data
   /**
    * Genotypes for each position (first dim) and each sample (second dim)
-   * Each field contains the number of variant allele (0, 1 or 2). Missing (-1)
+   * Each field contains the number of variant allele (0, 1 or 2). Missing genotypes have been replaced
    */
-  private int[][] genotypes;
+  private GenotypeMatrix genotypes;
   /**
    * Total number of variants among the datasets
    */
@@ -98,6 +97,19 @@ public class WSS {
     this.load(phenotypes, lines);
   }
 
+  /**
+   * Builds a WSS from genotypes already parsed
+   *
+   * @param gene       name of the genomic region
+   * @param phenotypes phenotypes of the samples (true when affected)
+   * @param genotypes  genotypes of each variant (one value per sample from -1 to 2)
+   */
+  public WSS(String gene, boolean[] phenotypes, GeneGenotypes genotypes, Instance instance) {
+    this.instance = instance;
+    this.gene = gene;
+    this.load(phenotypes, genotypes);
+  }
+
   /**
    * Loads the real phenotypes and reads the genotypes from a file
    *
@@ -121,6 +133,34 @@ public class WSS {
    * @param lines lines of genotypes (one column per sample with integer values from -1 to 2)
    */
   private void load(boolean[] phenotypes, ArrayList<String> lines) {
+    int[][] matrix = new int[lines.size()][];
+    this.init(phenotypes, matrix.length);
+    for (int i = 0; i < lines.size(); i++)
+      matrix[i] = this.countShared(phenotypes, replaceMissingWithMostFrequent(lines.get(i).split("\\s+"))); // No missing
+    this.setGenotypes(phenotypes, matrix);
+  }
+
+  /**
+   * Loads the real phenotypes and the genotypes already parsed
+   *
+   * @param phenotypes phenotypes of the sample (true when affected)
+   * @param genotypes  genotypes of each variant (one value per sample from -1 to 2)
+   */
+  private void load(boolean[] phenotypes, GeneGenotypes genotypes) {
+    int[][] matrix = new int[genotypes.size()][];
+    this.init(phenotypes, matrix.length);
+    for (int i = 0; i < matrix.length; i++)
+      matrix[i] = this.countShared(phenotypes, replaceMissingWithMostFrequent(genotypes.getGenotypes().get(i))); // No missing
+    this.setGenotypes(phenotypes, matrix);
+  }
+
+  /**
+   * Initializes the factor and the counts of variants
+   *
+   * @param phenotypes phenotypes of the sample (true when affected)
+   * @param nbVariants number of variants
+   */
+  private void init(boolean[] phenotypes, int nbVariants) {
     int nbAffected = 0;
     for(boolean s : phenotypes)
       if(s)
@@ -128,25 +168,41 @@ public class WSS {
     int nbUnaffected = phenotypes.length - nbAffected;
     this.factor = 0.5/(nbUnaffected+1);
 
-    this.totalVariants = lines.size();
+    this.totalVariants = nbVariants;
     this.sharedVariants = 0;
-    this.genotypes = new int[totalVariants][phenotypes.length];
-    for (int i = 0; i < lines.size(); i++) {
-      boolean hasAffected = false;
-      boolean hasUnaffected = false;
-      String[] f = lines.get(i).split("\\s+");
-      int[] geno = replaceMissingWithMostFrequent(f); // No missing
-      for (int j = 0; j < f.length; j++) {
-        if (geno[j] != mostFrequentGenotype)
-          if (phenotypes[j])
-            hasAffected = true;
-          else
-            hasUnaffected = true;
-      }
-      genotypes[i] = geno;
-      if (hasAffected && hasUnaffected)
-        this.sharedVariants++;
+  }
+
+  /**
+   * Counts the variant as shared if it is observed in affected and unaffected samples
+   *
+   * @param phenotypes phenotypes of the sample (true when affected)
+   * @param geno       genotypes of the variant, without missing values
+   * @return geno
+   */
+  private int[] countShared(boolean[] phenotypes, int[] geno) {
+    boolean hasAffected = false;
+    boolean hasUnaffected = false;
+    for (int j = 0; j < geno.length; j++) {
+      if (geno[j] != mostFrequentGenotype)
+        if (phenotypes[j])
+          hasAffected = true;
+        else
+          hasUnaffected = true;
     }
+    if (hasAffected && hasUnaffected)
+      this.sharedVariants++;
+    return geno;
+  }
+
+  /**
+   * Stores the genotypes
+   *
+   * @param phenotypes phenotypes of the sample (true when affected)
+   * @param matrix     genotypes of each variant, without missing values
+   */
+  private void setGenotypes(boolean[] phenotypes, int[][] matrix) {
+    //sparse or dense storage, whichever is smaller
+    this.genotypes = GenotypeMatrix.build(matrix, phenotypes.length);
     if (totalVariants < 1)
       instance.logError(MSG.cat(MSG.WSS_NO_VARIANTS, this.gene));
   }
@@ -183,6 +239,34 @@ public class WSS {
     return ret;
   }
 
+  /**
+   * Replaces missing genotypes with the most frequent non missing genotype between 0 (REF) and 2 (ALT)
+   * @param genotypes the original genotypes
+   * @return the new genotype array
+   */
+  public int[] replaceMissingWithMostFrequent(byte[] genotypes){
+    int[] ret = new int[genotypes.length];
+    int[] count = new int[3];
+
+    //same as replaceMissingWithMostFrequent(String[])
+    for(int i = 0 ; i < genotypes.length; i++){
+      int g = genotypes[i];
+      if(g > Constants.GENO_MISSING){
+        count[g]++;
+        ret[i] = g;
+      } else
+        ret[i] = Constants.GENO_REF;
+    }
+    this.mostFrequentGenotype = Constants.GENO_REF;
+    if(count[Constants.GENO_ALT] > count[Constants.GENO_REF]) {
+      this.mostFrequentGenotype = Constants.GENO_ALT;
+      for (int i = 0; i < genotypes.length; i++)
+        if (genotypes[i] == Constants.GENO_MISSING)
+          ret[i] = Constants.GENO_ALT;
+    }
+    return ret;
+  }
+
   /**
    * Compute the real ranksum
    *
@@ -190,48 +274,75 @@ public class WSS {
    * @return the computed ranksum
    */
   public double start(boolean[] phenotypes) {
-    ranksum = xOptimizedNoMissing(phenotypes, this.genotypes, this.factor, this.instance);
+    ranksum = xOptimizedNoMissing(PackedGenotypes.toBits(phenotypes), this.genotypes, this.factor);
     return ranksum;
   }
 
   public double testUnoptimized(boolean[] phenotypes){
-    return xOriginal(phenotypes, this.genotypes, this.instance);
+    return xOriginal(phenotypes, this.genotypes.unpack(), this.instance);
   }
 
   /**
-   * count k0 for all the boolean arrays, on several cores
+   * Counts the permutations with a ranksum at least as extreme as the unscrambled data. k and k0 are not updated
    *
-   * @param shuffled  array of arrays of shuffled phenotypes
-   * @param nbThreads number of core to use
+   * @param stream   the PermutationStream providing the permutations
+   * @param first    the index of the first permutation
+   * @param length   number of permutations to perform
+   * @param shuffled a bitset, used as a buffer for each shuffled phenotypes
+   * @return the number of permutations where x &ge; reference ranksum
    */
-  public void doPermutations(final boolean[][] shuffled, final int nbThreads) {
-    final int nbLoop = shuffled.length / nbThreads;
-    //parallel processing
-    IntStream.range(0, nbThreads).parallel().forEach(core -> doPermutations(shuffled, core * nbLoop, nbLoop));
+  int countPermutations(final PermutationStream stream, final long first, final int length, final long[] shuffled) {
+    int partialK0 = 0;
+    for (int i = 0; i < length; i++) {
+      stream.get(first + i, shuffled);
+      if (xOptimizedNoMissing(shuffled, this.genotypes, this.factor) >= ranksum)
+        partialK0++;
+    }
+    return partialK0;
   }
 
   /**
-   * Partial count k0 for the boolean phenotypes from shuffled between [start;start+length[
+   * Counts the permutations with a ranksum at least as extreme as the unscrambled data, on permutations that have already been generated. k and k0 are not updated
    *
-   * @param shuffled array of arrays of shuffled phenotypes
-   * @param start    index of first boolean arrays to process
-   * @param length   number of boolean arrays to process
+   * @param shuffled array of bitsets of shuffled phenotypes (bit set when affected)
+   * @param length   number of bitsets to process
+   * @return the number of permutations where x &ge; reference ranksum
    */
-  private void doPermutations(final boolean[][] shuffled, final int start, final int length) {
-    //k0 is the number of permutations that have a ranking sum at least as low as the real data
+  int countPermutations(final long[][] shuffled, final int length) {
+    int partialK0 = 0;
     for (int i = 0; i < length; i++)
-      doPermutation(shuffled[start+i]);
+      if (xOptimizedNoMissing(shuffled[i], this.genotypes, this.factor) >= ranksum)
+        partialK0++;
+    return partialK0;
   }
 
   /**
-   * Increments k0 and
+   * Adds the outcome of permutations to k and k0
    *
-   * @param shuffled the unshuffled array of boolean
+   * @param length    number of permutations performed
+   * @param partialK0 number of these permutations where x &ge; reference ranksum
    */
-  private void doPermutation(final boolean[] shuffled) {
-    k.incrementAndGet();
-    if (xOptimizedNoMissing(shuffled, this.genotypes, this.factor, this.instance) >= ranksum)
-      k0.incrementAndGet();
+  void addPermutations(final int length, final int partialK0) {
+    k.addAndGet(length);
+    k0.addAndGet(partialK0);
+  }
+
+  /**
+   * Total number of variants among the datasets
+   *
+   * @return the number of variants of this gene
+   */
+  int getTotalVariants() {
+    return totalVariants;
+  }
+
+  /**
+   * Total number of permutations performed so far
+   *
+   * @return k
+   */
+  int getK() {
+    return k.get();
   }
 
   /**
@@ -334,40 +445,31 @@ public class WSS {
   /**
    * Computes the sum of the ranks (on the genetic score) for affected individuals<br>/
    * this is an optimized version, that assumes no missing genotypes (as missing are replaced with the most frequent homo genotypes
-   * @param phenotypes phenotypes of the samples (true when affected)
+   * @param affected bitset of the phenotypes of the samples (bit set when affected)
+   * @param genotypes the packed genotypes of the gene
+   * @param factor 1/(2*unaffected + 2)
    * @return the sum of the ranks (on the genetic score) for affected individuals
    */
-  private static double xOptimizedNoMissing(boolean[] phenotypes, int[][] genotypes, double factor, Instance instance) {
-    //weight of the variant v
-    final int N = phenotypes.length;
-    final int V = genotypes.length;
-    final double[] w = new double[V];
-    //compute mu,nu,n,q and w
+  private static double xOptimizedNoMissing(long[] affected, GenotypeMatrix genotypes, double factor) {
+    final int N = genotypes.getNbSamples();
+    final int V = genotypes.getNbVariants();
+    //genetic scores for individuals, in the scratch buffer of the current thread
+    final RankKernel kernel = RankKernel.get();
+    final double[] gammas = kernel.getGammas(N);
     for (int v = 0; v < V; v++) {
       //1 + number of mutant alleles observed for variant v in the unaffected individuals
-      int mu = 1; //optimized, was mu = 0;
-      for (int i = 0; i < N; i++)
-        if (!phenotypes[i])
-          mu += genotypes[v][i];
+      int mu = 1 + genotypes.countUnaffectedAlleles(v, affected); //optimized, was mu = 0;
       //mutant_unaffected + 1 / 2*genotyped_unaffected + 2 for variant v
       double q = factor * mu; // optimised, was double q = (mu + 1.0) / (2 * nu + 2.0) with nu=0 et mu=0 at start
-      w[v] = Math.sqrt(N * q * (1 - q)); //w == 0 if : N == 0 or q == 0 or q == 1
+      //weight of the variant v
+      double w = Math.sqrt(N * q * (1 - q)); //w == 0 if : N == 0 or q == 0 or q == 1
       //q == 0 -> impossible
       //q == 1 -> all genotyped unaffected individual are 2
+      //variants are processed in the same order for each individual, so gammas are summed exactly as in xOriginal
+      genotypes.addScores(v, Constants.GENO_HET / w, Constants.GENO_ALT / w, gammas);
     }
-    //compute gamma for affected and unaffected and add to sort
-    //Arrays to sort/rank gammas
-    RankedGammaList gammaList = new RankedGammaList();
-    //genetic scores for individuals
-    for (int i = 0; i < N; i++) {
-      double gamma = 0.0;
-      for (int v = 0; v < V; v++)
-        gamma += genotypes[v][i] / w[v];
-      gammaList.add(gamma, phenotypes[i]);
-    }
-
-    //gammaList.printDebug();
-    return gammaList.getRanking();
+    //sort/rank gammas without allocation (xOriginal still uses RankedGammaList, and is the reference)
+    return kernel.getRanking(N, affected);
   }
 
   /**
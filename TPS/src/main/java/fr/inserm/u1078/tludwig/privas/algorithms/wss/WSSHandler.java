@@ -16,8 +16,7 @@ import java.util.HashMap;
 
 /**
  * Class that will parse the data and launch WSS in parallel on all the genes
- * Sometimes the parallelization will be to sequentially launch WSS instances that are multi-threaded
- * Sometimes the parallelization will be to launch in parallel several instances of mono-threaded WSS
+ * The permutations of all the genes are scheduled as blocks on a work-stealing pool (see WSSScheduler)
  *
  * @author Thomas E. Ludwig (INSERM - U1078) 2019-04-18
  *
@@ -155,6 +154,26 @@ public class WSSHandler {
     return this.run();
   }
 
+  /**
+   * Creates the list of genes to process, loads phenotype data and start computing
+   *
+   * @param mergedGenotypes genotypes of each genomic region (gene), the first columns are relative to the affected individuals, the last ones to the
+   *                        unaffected
+   * @param nbAffected      number of affected individuals
+   * @param nbUnaffected    number of unaffected individuals
+   *
+   * @return the results of WSS. A result file, in clear text, stored in a byte array
+   */
+  public byte[] start(ArrayList<GeneGenotypes> mergedGenotypes, int nbAffected, int nbUnaffected) {
+    if (mergedGenotypes == null) {
+      statusError(MSG.WH_MAP_NULL);
+      return null;
+    }
+
+    this.loadData(mergedGenotypes, nbAffected, nbUnaffected);
+    return this.run();
+  }
+
   /**
    * Sets the ThirdPartyServer that will receiver the status updates
    *
@@ -235,13 +254,7 @@ public class WSSHandler {
    * @param nbUnaffected    number of unaffected individuals
    */
   private void loadData(HashMap<String, ArrayList<String>> mergedGenotypes, int nbAffected, int nbUnaffected) {
-    //number of affected individuals in the dataset
-    this.nbAffected = nbAffected;
-    this.nbUnaffected = nbUnaffected;
-    //reading phenotypes
-    phenotypes = new boolean[this.nbAffected + this.nbUnaffected];
-    for (int i = 0; i < this.nbAffected + this.nbUnaffected; i++)
-      phenotypes[i] = i < this.nbAffected;
+    this.setPhenotypes(nbAffected, nbUnaffected);
     wss = new ArrayList<>();
     for (String gene : mergedGenotypes.keySet()) {
       ArrayList<String> genotypes = mergedGenotypes.get(gene);
@@ -254,12 +267,43 @@ public class WSSHandler {
   }
 
   /**
-   * First, compute WSS for each gene in the list in parallel mode (limited to the selected number of threads)
-   * - compute reference ranksum
-   * - perform first iteration (a set number of permutations)
-   * <p>
-   * Now we have rejected most of the genes (which are above the rejection p-value threshold)
-   * we will iterate the genes sequentially, each gene will be processed on multiple threads
+   * Loads phenotype data, loads the list of genes
+   *
+   * @param mergedGenotypes genotypes of each genomic region (gene), the first columns are relative to the affected individuals, the last ones to the
+   *                        unaffected
+   * @param nbAffected      number of affected individuals
+   * @param nbUnaffected    number of unaffected individuals
+   */
+  private void loadData(ArrayList<GeneGenotypes> mergedGenotypes, int nbAffected, int nbUnaffected) {
+    this.setPhenotypes(nbAffected, nbUnaffected);
+    wss = new ArrayList<>();
+    for (GeneGenotypes genotypes : mergedGenotypes)
+      wss.add(new WSS(genotypes.getGene(), phenotypes, genotypes, instance));
+
+    statusRunning(MSG.cat(MSG.WH_GENO_LIST_LOADED, wss.size()));
+  }
+
+  /**
+   * Sets the phenotypes : the first individuals are affected, the last ones are unaffected
+   *
+   * @param nbAffected   number of affected individuals
+   * @param nbUnaffected number of unaffected individuals
+   */
+  private void setPhenotypes(int nbAffected, int nbUnaffected) {
+    //number of affected individuals in the dataset
+    this.nbAffected = nbAffected;
+    this.nbUnaffected = nbUnaffected;
+    //reading phenotypes
+    phenotypes = new boolean[this.nbAffected + this.nbUnaffected];
+    for (int i = 0; i < this.nbAffected + this.nbUnaffected; i++)
+      phenotypes[i] = i < this.nbAffected;
+  }
+
+  /**
+   * Computes the reference ranksum of each gene, then performs the permutations of all the genes with a WSSScheduler
+   * - all the genes are processed at the same time, as blocks of permutations executed on a work-stealing pool
+   * - the stopping rule of a gene is first checked after a set number of permutations (first iteration)
+   * - most of the genes are rejected there (above the rejection p-value threshold), the cores are then shared by the remaining genes
    * <p>
    *
    * @return the results of WSS. A result file, in clear text, stored in a byte array
@@ -267,8 +311,6 @@ public class WSSHandler {
   private byte[] run() {
     long startComp = new Date().getTime();
     statusRunning(MSG.WH_START);
-    //init
-    Shuffler shuffler = new Shuffler(nbUnaffected, nbAffected, randomSeed);
     final long start = new Date().getTime();
 
     //print results header
@@ -277,73 +319,34 @@ public class WSSHandler {
     out.println(Constants.WWS_HEADER);
 
     //compute rank sum
-    //perform first iteration
-    int minIteration = (int) Math.ceil(((Parameters.WSS_DEFAULT_LOOP_SIZE / this.rejectionPValue) + 1));
-    while(minIteration % this.nbThreads != 0)
-      minIteration++;
-    final boolean[][] shuffled = shuffler.getNext(minIteration);
-    //k is the number of permutations done so far
-    int k = minIteration;
-
-    int totalGenes = wss.size();
-    //minority of genes that are not above the rejection p-value after the 1st iteration
-    ArrayList<WSS> keep = new ArrayList<>();
-
-    for (WSS w : this.wss) {
+    for (WSS w : this.wss)
       w.start(this.phenotypes);
-      w.doPermutations(shuffled, this.nbThreads);
-      if (w.isStopReached(this.minK0, this.maxK, this.rejectionPValue, this.minPValueMinusLog))
-        out.println(w.getResults(start));
+
+    //number of permutations of the first iteration
+    final int minIteration = (int) Math.ceil(((Parameters.WSS_DEFAULT_LOOP_SIZE / this.rejectionPValue) + 1));
+    final int totalGenes = wss.size();
+
+    WSSScheduler scheduler = new WSSScheduler(wss, this.nbThreads, this.minK0, this.maxK, this.rejectionPValue, this.minPValueMinusLog, minIteration, nbUnaffected, nbAffected, randomSeed, out, start);
+    final long[] previous = {0, new Date().getTime(), totalGenes};//permutations, time, remaining
+    scheduler.run((k, left) -> {
+      long now = new Date().getTime();
+      //permutations done by the remaining genes since last update
+      long nbIterDone = (k - previous[0]) * previous[2]; //long in case it is more than MAX_INTEGER=2147483647
+      long nbIterLeft = (this.maxK - k) * left; //long in case it is more than MAX_INTEGER=2147483647
+      double iterByMs = nbIterDone / (double) Math.max(1, now - previous[1]);
+      if (iterByMs > 0)
+        statusRunning(MSG.WH_PROGRESS(k, left, totalGenes, (long) (nbIterLeft / iterByMs)));
       else
-        keep.add(w);
-    }
+        statusRunning(MSG.WH_PROGRESS(k, left, totalGenes));
+      previous[0] = k;
+      previous[1] = now;
+      previous[2] = left;
+    });
 
-    wss = keep;
-    out.flush();
-    statusRunning(MSG.WH_PROGRESS(k, wss.size(), totalGenes));
-    int previousRemaining = wss.size();
-
-    int previousK = k;
-    long previousTime = new Date().getTime();
-    //now we have rejected most of the genes (which are above the rejection p-value threshold)
-    //we will iterate the genes sequentially, each gene will be processed on multiple threads
-    int step = this.nbThreads * Parameters.WSS_DEFAULT_LOOP_SIZE;
-
-    //second pass (same as the following, but timed
-    while (!wss.isEmpty()) {
-      ArrayList<WSS> toRemove = new ArrayList<>();
-      //get shuffle
-      final boolean[][] shuffled2 = shuffler.getNext(step);
-      k += step;
-      for (WSS w : wss) {
-        w.doPermutations(shuffled2, this.nbThreads);
-        if (w.isStopReached(this.minK0, this.maxK, this.rejectionPValue, this.minPValueMinusLog)) {
-          out.println(w.getResults(start));
-          toRemove.add(w);
-        }
-      }
-      out.flush();
-      for (WSS w : toRemove)
-        wss.remove(w);
-
-      if ((previousRemaining != wss.size()) || (k - previousK > 10000)) {
-        long now = new Date().getTime(); //now
-        double ms = now - previousTime;
-        long nbIterDone = (k - previousK) * previousRemaining; //long in case it is more than MAX_INTEGER=2147483647
-        long nbIterLeft = (this.maxK - k) * wss.size(); //long in case it is more than MAX_INTEGER=2147483647
-        double iterByMs = nbIterDone / ms;
-        long msLeft = (long) (nbIterLeft / iterByMs);
-        statusRunning(MSG.WH_PROGRESS(k, wss.size(), totalGenes, msLeft));
-        //update values
-        previousRemaining = wss.size();
-        previousK = k;
-        previousTime = now;
-      }
-    }
     Date endComp = new Date();
     statusRunning(MSG.WH_END(startComp, endComp.getTime()));
     statusRunning(MSG.WH_DONE);
     out.close();
     return resultStream.toByteArray();
   }
-}
\ No newline at end of file
+}
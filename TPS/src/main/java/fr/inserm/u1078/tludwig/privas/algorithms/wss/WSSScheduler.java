@@ -0,0 +1,460 @@
+package fr.inserm.u1078.tludwig.privas.algorithms.wss;
+
+import fr.inserm.u1078.tludwig.privas.constants.Parameters;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work-stealing scheduler of the WSS permutations <br/>
+ * Each task is a block of permutations for a single gene. All the genes are processed at the same time, on a ForkJoinPool :
+ * <ul>
+ *   <li>the number of blocks in flight for a gene is ceil(nbThreads / remaining genes), so that the last genes use all the cores</li>
+ *   <li>the size of a block is adapted to the measured cost of a permutation for its gene, so that each block lasts about WSS_BLOCK_TARGET_MS</li>
+ *   <li>a gene is retired as soon as its stopping rule fires, and its result is printed</li>
+ * </ul>
+ * The stopping rule is not checked before a gene has done firstCheck permutations (the first iteration of WSS).
+ * The permutations come from a PermutationStream, and are committed in order, so that the results do not depend on the number of threads.
+ * By default, the first iteration is processed as tiles of (genes x permutations), where many small genes consume a chunk of permutations while it is in cache
+ *
+ * @author Thomas E. Ludwig (INSERM - U1078)
+ * Started on             2026-10-17
+ * Checked for release on XXXX-XX-XX
+ * Unit Test defined on   XXXX-XX-XX
+ */
+class WSSScheduler {
+  /**
+   * smoothing factor of the exponential moving average of the cost of a permutation
+   */
+  private static final double EMA_ALPHA = 0.5;
+
+  private final int nbThreads;
+  private final int minK0;
+  private final long maxK;
+  private final double rejectionPValue;
+  private final double minPValueMinusLog;
+  /**
+   * number of permutations before the first check of the stopping rule
+   */
+  private final int firstCheck;
+  /**
+   * number of permutations between two checks of the stopping rule
+   */
+  private static final int CHUNK = Parameters.WSS_DEFAULT_LOOP_SIZE;
+  /**
+   * number of first pass tasks per thread (to balance the tasks)
+   */
+  private static final int TILES_PER_THREAD = 4;
+  /**
+   * provides the permutation k to any thread
+   */
+  private final PermutationStream stream;
+
+  /**
+   * where the results are printed
+   */
+  private final PrintWriter out;
+  /**
+   * start of the computation, used in the results
+   */
+  private final long start;
+
+  private final List<GeneState> genes;
+  /**
+   * number of genes that are not retired yet
+   */
+  private volatile int remaining;
+  /**
+   * first error thrown by a task
+   */
+  private RuntimeException error = null;
+  /**
+   * is the first iteration processed as tiles of (genes x permutations) ?
+   */
+  private boolean tiledFirstPass = true;
+
+  /**
+   * Constructs a new WSSScheduler
+   *
+   * @param wss               the genes to process, their ranksum must have been computed
+   * @param nbThreads         maximum number of cores to use
+   * @param minK0             minimal k0 value (continue permutation as long as k0 &lt; minK0)
+   * @param maxK              maximum number of permutations
+   * @param rejectionPValue   if the p-value is above this value, the permutations stop, no need to continue
+   * @param minPValueMinusLog the permutations stop if k0 &ge; 1 + this.minPValueMinusLog + Math.log10(pvalue)
+   * @param firstCheck        number of permutations before the first check of the stopping rule
+   * @param nbUnaffected      number of unaffected samples
+   * @param nbAffected        number of affected samples
+   * @param randomSeed        initial random seed
+   * @param out               where the results are printed
+   * @param start             start of the computation, used in the results
+   */
+  WSSScheduler(List<WSS> wss, int nbThreads, int minK0, long maxK, double rejectionPValue, double minPValueMinusLog, int firstCheck, int nbUnaffected, int nbAffected, long randomSeed, PrintWriter out, long start) {
+    this.nbThreads = nbThreads;
+    this.minK0 = minK0;
+    this.maxK = maxK;
+    this.rejectionPValue = rejectionPValue;
+    this.minPValueMinusLog = minPValueMinusLog;
+    this.firstCheck = firstCheck;
+    this.stream = new PermutationStream(nbUnaffected, nbAffected, randomSeed);
+    this.out = out;
+    this.start = start;
+    this.genes = new ArrayList<>();
+    for (WSS w : wss)
+      this.genes.add(new GeneState(w));
+    this.remaining = this.genes.size();
+  }
+
+  /**
+   * Processes all the genes, and waits for them to be retired
+   *
+   * @param progress called every WSS_PROGRESS_DELAY ms, while genes remain
+   */
+  void run(Progress progress) {
+    if (maxK < 1) {
+      //no permutation can be performed : all the genes are retired straight away, so that their results are written
+      for (GeneState gene : genes)
+        retire(gene);
+      return;
+    }
+    ForkJoinPool pool = new ForkJoinPool(nbThreads);
+    try {
+      if (tiledFirstPass)
+        scheduleFirstPass(pool);
+      else
+        for (GeneState gene : genes)
+          gene.schedule(pool);
+      while (true) {
+        int left;
+        synchronized (this) {
+          if (remaining > 0 && error == null)
+            this.wait(Parameters.WSS_PROGRESS_DELAY);
+          if (remaining == 0 || error != null)
+            break;
+          left = remaining;
+        }
+        //the status is written outside of the lock, so that retire() and fail() don't wait for it
+        progress.update(getMaxK(), left);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException ignore) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (error != null)
+      throw error;
+  }
+
+  /**
+   * Enables/Disables the tiled first pass. When disabled, each gene performs its first iteration on its own blocks
+   *
+   * @param tiledFirstPass is the first iteration processed as tiles of (genes x permutations) ?
+   */
+  void setTiledFirstPass(boolean tiledFirstPass) {
+    this.tiledFirstPass = tiledFirstPass;
+  }
+
+  /**
+   * Schedules the first iteration of all the genes as tiles. The genes are grouped by estimated cost, and each task processes a group of genes :
+   * a chunk of permutations is generated once, and stays in cache while each gene of the group consumes it.
+   * When there are less groups than threads, the permutations of the first iteration are also split between several tasks
+   *
+   * @param pool the pool executing the tasks
+   */
+  private void scheduleFirstPass(ForkJoinPool pool) {
+    final long firstSize = Math.min(maxK, ((firstCheck + CHUNK - 1) / CHUNK) * (long) CHUNK);
+    if (genes.isEmpty() || firstSize < 1)
+      return;
+    //estimated cost of a permutation : genotypes + ranking
+    final int nbWords = stream.getNbWords();
+    long totalCost = 0;
+    for (GeneState gene : genes)
+      totalCost += getCost(gene, nbWords);
+    final long groupCost = Math.max(1, totalCost / ((long) nbThreads * TILES_PER_THREAD));
+
+    List<List<GeneState>> groups = new ArrayList<>();
+    List<GeneState> group = new ArrayList<>();
+    long cost = 0;
+    for (GeneState gene : genes) {
+      group.add(gene);
+      cost += getCost(gene, nbWords);
+      if (cost >= groupCost) {
+        groups.add(group);
+        group = new ArrayList<>();
+        cost = 0;
+      }
+    }
+    if (!group.isEmpty())
+      groups.add(group);
+
+    final int nbChunks = (int) ((firstSize + CHUNK - 1) / CHUNK);
+    final int splits = Math.min(nbChunks, (nbThreads + groups.size() - 1) / groups.size());
+    final int chunksPerSplit = (nbChunks + splits - 1) / splits;
+    final int nbTasks = (nbChunks + chunksPerSplit - 1) / chunksPerSplit;
+    for (List<GeneState> g : groups)
+      for (GeneState gene : g)
+        gene.startFirstPass(firstSize, nbTasks);
+    for (List<GeneState> g : groups)
+      for (int t = 0; t < nbTasks; t++) {
+        final long first = (long) t * chunksPerSplit * CHUNK;
+        final int size = (int) Math.min((long) chunksPerSplit * CHUNK, firstSize - first);
+        pool.execute(() -> processTile(pool, g, first, size));
+      }
+  }
+
+  /**
+   * Estimated cost of a permutation for a gene
+   *
+   * @param gene    the gene
+   * @param nbWords number of 64-bits words in a bitset of samples
+   * @return number of variants x number of words + ranking cost
+   */
+  private static long getCost(GeneState gene, int nbWords) {
+    return (long) gene.wss.getTotalVariants() * nbWords + 64L * nbWords;
+  }
+
+  /**
+   * Processes a tile : each chunk of permutations is generated once, then consumed by all the genes of the group
+   *
+   * @param pool  the pool executing the tasks
+   * @param group the genes of the tile
+   * @param first index of the first permutation of the tile
+   * @param size  number of permutations of the tile
+   */
+  private void processTile(ForkJoinPool pool, List<GeneState> group, long first, int size) {
+    try {
+      final long[][] tile = new long[CHUNK][stream.getNbWords()];
+      final int[][] partialK0 = new int[group.size()][(size + CHUNK - 1) / CHUNK];
+      final long[] ns = new long[group.size()];
+      for (int c = 0; c < partialK0[0].length; c++) {
+        final int length = Math.min(CHUNK, size - c * CHUNK);
+        for (int i = 0; i < length; i++)
+          stream.get(first + (long) c * CHUNK + i, tile[i]);
+        for (int g = 0; g < group.size(); g++) {
+          long startGene = System.nanoTime();
+          partialK0[g][c] = group.get(g).wss.countPermutations(tile, length);
+          ns[g] += System.nanoTime() - startGene;
+        }
+      }
+      for (int g = 0; g < group.size(); g++) {
+        GeneState gene = group.get(g);
+        if (gene.done(first, partialK0[g], ns[g] / (double) size))
+          retire(gene);
+        else
+          gene.schedule(pool);
+      }
+    } catch (RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Number of permutations of the most advanced gene
+   *
+   * @return max(k) over all the genes
+   */
+  private int getMaxK() {
+    int max = 0;
+    for (GeneState gene : genes)
+      max = Math.max(max, gene.wss.getK());
+    return max;
+  }
+
+  /**
+   * Number of genes that are not retired yet
+   *
+   * @return the number of genes left
+   */
+  int getRemaining() {
+    return remaining;
+  }
+
+  /**
+   * Called when a gene is retired
+   *
+   * @param gene the retired gene
+   */
+  private synchronized void retire(GeneState gene) {
+    synchronized (out) {
+      out.println(gene.wss.getResults(start));
+    }
+    remaining--;
+    if (remaining == 0)
+      this.notifyAll();
+  }
+
+  /**
+   * Called when a task fails : the computation is aborted
+   *
+   * @param e the error
+   */
+  private synchronized void fail(RuntimeException e) {
+    if (error == null)
+      error = e;
+    this.notifyAll();
+  }
+
+  /**
+   * Receiver of the progress of the computation
+   */
+  interface Progress {
+    /**
+     * Called periodically during the computation
+     *
+     * @param permutations number of permutations of the most advanced gene
+     * @param left         number of genes left
+     */
+    void update(int permutations, int left);
+  }
+
+  /**
+   * Scheduling state of a gene <br/>
+   * The permutations are split in chunks of WSS_DEFAULT_LOOP_SIZE, a block being a run of consecutive chunks.
+   * The outcome of the blocks is committed in the order of the permutations, and the stopping rule is checked after each chunk :
+   * the results only depend on the seed, whatever the number of threads and the sizes of the blocks.
+   */
+  private class GeneState {
+    private final WSS wss;
+    /**
+     * number of permutations already submitted (done or in flight)
+     */
+    private long submitted = 0;
+    /**
+     * number of permutations committed to wss
+     */
+    private long committed = 0;
+    /**
+     * outcome (k0 of each chunk) of the blocks done but not committed yet, by index of their first permutation
+     */
+    private final TreeMap<Long, int[]> pending = new TreeMap<>();
+    /**
+     * number of blocks in flight
+     */
+    private int inFlight = 0;
+    /**
+     * moving average of the duration of one permutation in ns, 0 when not measured yet
+     */
+    private double nsPerPermutation = 0;
+    private boolean retired = false;
+
+    GeneState(WSS wss) {
+      this.wss = wss;
+    }
+
+    /**
+     * Marks the first iteration as submitted, as tiles
+     *
+     * @param size  number of permutations of the first iteration
+     * @param tiles number of tiles covering the first iteration
+     */
+    private synchronized void startFirstPass(long size, int tiles) {
+      submitted = size;
+      inFlight = tiles;
+    }
+
+    /**
+     * Submits new blocks, until the targeted number of blocks in flight is reached
+     *
+     * @param pool the pool executing the blocks
+     */
+    private synchronized void schedule(ForkJoinPool pool) {
+      int left = getRemaining();
+      int target = left < 1 ? 1 : (nbThreads + left - 1) / left;
+      while (!retired && inFlight < target && submitted < maxK) {
+        final long first = submitted;
+        final int size = (int) Math.min((long) getBlockChunks(target) * CHUNK, maxK - submitted);
+        submitted += size;
+        inFlight++;
+        pool.execute(() -> process(pool, first, size));
+      }
+    }
+
+    /**
+     * The number of chunks in the next block, from the measured cost of a permutation
+     *
+     * @param target number of blocks in flight for this gene
+     * @return the number of chunks in the next block
+     */
+    private int getBlockChunks(int target) {
+      //first blocks : split the first iteration between the blocks in flight
+      if (submitted < firstCheck) {
+        int chunks = (int) ((firstCheck - submitted + CHUNK - 1) / CHUNK);
+        return Math.max(1, Math.min(chunks, ((firstCheck + CHUNK - 1) / CHUNK + target - 1) / target));
+      }
+      if (nsPerPermutation <= 0)
+        return 1;
+      double size = Parameters.WSS_BLOCK_TARGET_MS * 1000000D / nsPerPermutation;
+      return (int) Math.max(1, Math.min(Parameters.WSS_MAX_BLOCK_SIZE, size) / CHUNK);
+    }
+
+    /**
+     * Performs a block of permutations, then updates the state of the gene
+     *
+     * @param pool  the pool executing the blocks
+     * @param first index of the first permutation of the block
+     * @param size  number of permutations in the block
+     */
+    private void process(ForkJoinPool pool, long first, int size) {
+      try {
+        if (isRetired())
+          return;
+        long[] shuffled = new long[stream.getNbWords()];
+        int[] partialK0 = new int[(size + CHUNK - 1) / CHUNK];
+        long startBlock = System.nanoTime();
+        for (int c = 0; c < partialK0.length; c++)
+          partialK0[c] = wss.countPermutations(stream, first + (long) c * CHUNK, Math.min(CHUNK, size - c * CHUNK), shuffled);
+        double ns = (System.nanoTime() - startBlock) / (double) size;
+        if (done(first, partialK0, ns))
+          retire(this);
+        else
+          schedule(pool);
+      } catch (RuntimeException e) {
+        fail(e);
+      }
+    }
+
+    private synchronized boolean isRetired() {
+      if (retired)
+        inFlight--;
+      return retired;
+    }
+
+    /**
+     * Adds the outcome of a block, commits the outcomes that directly follow the committed permutations, and checks the stopping rule after each chunk
+     *
+     * @param first     index of the first permutation of the block
+     * @param partialK0 for each chunk of the block, number of permutations where x &ge; reference ranksum
+     * @param ns        duration of a permutation in ns
+     * @return true if the gene has just been retired
+     */
+    private synchronized boolean done(long first, int[] partialK0, double ns) {
+      inFlight--;
+      if (retired)
+        return false;
+      nsPerPermutation = nsPerPermutation <= 0 ? ns : EMA_ALPHA * ns + (1 - EMA_ALPHA) * nsPerPermutation;
+      pending.put(first, partialK0);
+      while (!retired && !pending.isEmpty() && pending.firstKey() == committed) {
+        for (int k0 : pending.pollFirstEntry().getValue()) {
+          int length = (int) Math.min(CHUNK, maxK - committed);
+          wss.addPermutations(length, k0);
+          committed += length;
+          if ((committed >= firstCheck || committed >= maxK) && wss.isStopReached(minK0, maxK, rejectionPValue, minPValueMinusLog)) {
+            retired = true;
+            break;
+          }
+        }
+      }
+      return retired;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package fr.inserm.u1078.tludwig.privas.instances;
 
 import fr.inserm.u1078.tludwig.privas.utils.UniversalReader;
 import fr.inserm.u1078.tludwig.privas.utils.Crypto;
+import fr.inserm.u1078.tludwig.privas.algorithms.wss.GeneGenotypes;
 import fr.inserm.u1078.tludwig.privas.algorithms.wss.WSSHandler;
 import fr.inserm.u1078.tludwig.privas.constants.Constants;
 import fr.inserm.u1078.tludwig.privas.constants.FileFormat;
@@ -18,8 +19,15 @@ import java.io.PrintWriter;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The ThirdPartyServer is the instance of the program that will be launched on the Third Party Server
@@ -104,8 +112,7 @@ public class ThirdPartyServer extends CommandLineInstance {
    * The random seed
    */
   private final long randomSeed;
-  
-  private int failedFisher = 0;
+
 
   /**
    * Constructs an instance of ThirdPartyServer
@@ -190,7 +197,7 @@ public class ThirdPartyServer extends CommandLineInstance {
           //Nothing
         }
         if (permutation != -1) {
-          HashMap<String, ArrayList<String>> genotypes = prepareWSSData(frqThreshold);
+          ArrayList<GeneGenotypes> genotypes = prepareWSSData(frqThreshold, nbThreads);
           WSSHandler wssHandler = new WSSHandler(permutation, nbThreads, randomSeed, this);
           wssHandler.setThirdPartyServer(this);
           if (genotypes == null) {
@@ -255,7 +262,7 @@ public class ThirdPartyServer extends CommandLineInstance {
           //Nothing
         }
         if (permutation != -1) {
-          HashMap<String, ArrayList<String>> genotypes = prepareWSSData(frqThreshold);
+          ArrayList<GeneGenotypes> genotypes = prepareWSSData(frqThreshold, nbThreads);
           WSSHandler wssHandler = new WSSHandler(permutation, nbThreads, randomSeed, this);
           wssHandler.setThirdPartyServer(this);
           if (genotypes == null) {
@@ -357,20 +364,16 @@ public class ThirdPartyServer extends CommandLineInstance {
     this.updateStatusFile(TPStatus.State.DONE, MSG.TPS_DONE, true);
   }
   
-  private static int countVariants(HashMap<String, ArrayList<String>> data){
-    int total = 0;
-    for(ArrayList<String> list : data.values())
-      total += list.size();
-    return total;
-  }
-
   /**
    * Prepare the WSS Input Data by parsing the session's files
+   * Each line is parsed once, the genotypes are stored as primitive arrays
    *
-   * @return Map of genotypes for each genomic region (gene), the first columns are relative to the affected individuals, the last ones to the unaffected
+   * @param frqThreshold the threshold for the pooled frequency
+   * @param nbThreads    the maximum number of cores to use
+   * @return genotypes of each genomic region (gene), the first columns are relative to the affected individuals, the last ones to the unaffected
    * @throws IOException If an I/O error occurs while reading from the RPP's data file or the client's excluded variants file
    */
-  private HashMap<String, ArrayList<String>> prepareWSSData(double frqThreshold) throws IOException {
+  private ArrayList<GeneGenotypes> prepareWSSData(double frqThreshold, int nbThreads) throws IOException {
     UniversalReader in = new UniversalReader(this.rppExcludedVariantsFilename);
     VariantExclusionSet rppExcludedVariants = VariantExclusionSet.deserialize(in.readLine());
     in.close();
@@ -380,12 +383,13 @@ public class ThirdPartyServer extends CommandLineInstance {
     in.close();
     rppExcludedVariants.add(clientExcludedVariants);
 
-    HashMap<String, ArrayList<String>> clientData = readClientData(rppExcludedVariants);
-    HashMap<String, ArrayList<String>> rppData = readRPPData(rppExcludedVariants);
+    //key=gene, value=(key=variant, value=genotypes)
+    HashMap<String, HashMap<String, byte[]>> clientData = new HashMap<>();
+    HashMap<String, HashMap<String, byte[]>> rppData = new HashMap<>();
+    int clientVariants = readClientData(rppExcludedVariants, clientData);
+    int rppVariants = readRPPData(rppExcludedVariants, rppData);
     int clientGenes = clientData.keySet().size();
-    int clientVariants = countVariants(clientData);
     int rppGenes = rppData.keySet().size();
-    int rppVariants = countVariants(rppData);    
     statusStarted(MSG.cat(MSG.WSS_CLIENT_VARIANTS, clientVariants), false);
     statusStarted(MSG.cat(MSG.WSS_CLIENT_GENES, clientGenes), false);
     
@@ -398,46 +402,20 @@ public class ThirdPartyServer extends CommandLineInstance {
 
     if (genes.size() > 0) {
       //here we get the number of affected/unaffected samples
-      //and create a line of missing genotypes
-      nbAffected = clientData.get(genes.get(0)).get(0).split("\t").length - 2;
-      nbUnaffected = rppData.get(genes.get(0)).get(0).split("\t").length - 2;
-      final String missingCases = missingLine(nbAffected);
-      final String missingControl = missingLine(nbUnaffected);
+      nbAffected = clientData.get(genes.get(0)).values().iterator().next().length;
+      nbUnaffected = rppData.get(genes.get(0)).values().iterator().next().length;
 
       //here we populate the genotypes for each variant in each gene
-      HashMap<String, ArrayList<String>> genotypes = new HashMap<>();
-      HashMap<String, ArrayList<String>> variants = new HashMap<>();
       statusStarted(MSG.WSS_OK_PARSE, true);
-      int pooledFrequencyFiltered = 0;
-      failedFisher = 0;
-      for (String gene : genes) {
-        //key=variant, value=tab delimited genotypes
-        HashMap<String, String> variantLineCase = extractVariantLines(clientData.get(gene));
-        HashMap<String, String> variantLineControl = extractVariantLines(rppData.get(gene));
-
-        ArrayList<String> merge = merge(variantLineCase, variantLineControl, missingCases, missingControl);
-        //PrintWriter out = null;
-        pooledFrequencyFiltered += removeAlleleFrequency(merge, frqThreshold);
-        ArrayList<String> mergedGenotypes = new ArrayList<>();
-        ArrayList<String> variantNames = new ArrayList<>();
-
-        for(String line : merge){
-          int i =  line.indexOf('\t');
-          variantNames.add(line.substring(0, i));
-          mergedGenotypes.add(line.substring(i+1));
-        }
-
-        if(!mergedGenotypes.isEmpty()) {
-          genotypes.put(gene, mergedGenotypes);
-          variants.put(gene, variantNames);
-        }
-      }
-      statusStarted(MSG.cat(MSG.WSS_FILTERED_FREQUENCY, pooledFrequencyFiltered), false);
-      statusStarted(MSG.cat(MSG.WSS_FILTERED_FISHER, failedFisher), false);
+      AtomicInteger pooledFrequencyFiltered = new AtomicInteger();
+      AtomicInteger failedFisher = new AtomicInteger();
+      ArrayList<GeneGenotypes> genotypes = mergeAll(genes, clientData, rppData, frqThreshold, nbThreads, pooledFrequencyFiltered, failedFisher);
+      statusStarted(MSG.cat(MSG.WSS_FILTERED_FREQUENCY, pooledFrequencyFiltered.get()), false);
+      statusStarted(MSG.cat(MSG.WSS_FILTERED_FISHER, failedFisher.get()), false);
       statusStarted(MSG.WSS_OK_FILTER, true);
 
       //debug export input data !
-      export(genotypes, variants);
+      export(genotypes);
       
       return genotypes;
     }
@@ -445,14 +423,74 @@ public class ThirdPartyServer extends CommandLineInstance {
     return null;
   }
 
-  private boolean filterPooledFrequency(String line, double frq){
-    String[] f=  line.split("\t");
+  /**
+   * Merges and filters the genes in parallel (the genes are independent).
+   * The genes are kept in the order of the list, empty genes are removed.
+   *
+   * @param genes                   the common genes
+   * @param clientData              genotypes for the affected individuals, for each variant, for each gene
+   * @param rppData                 genotypes for the unaffected individuals, for each variant, for each gene
+   * @param frqThreshold            the threshold for the pooled frequency
+   * @param nbThreads               the maximum number of cores to use
+   * @param pooledFrequencyFiltered counter of variants filtered out by pooled frequency
+   * @param failedFisher            counter of variants filtered out by the call rate Fisher test
+   * @return the merged genotypes of each non empty gene
+   */
+  private ArrayList<GeneGenotypes> mergeAll(ArrayList<String> genes, HashMap<String, HashMap<String, byte[]>> clientData, HashMap<String, HashMap<String, byte[]>> rppData,
+                                           double frqThreshold, int nbThreads, AtomicInteger pooledFrequencyFiltered, AtomicInteger failedFisher) {
+    final byte[] missingCases = missingGenotypes(nbAffected);
+    final byte[] missingControl = missingGenotypes(nbUnaffected);
+    final int size = nbAffected + nbUnaffected;
+    //FisherExactTest is not shared between threads
+    final ThreadLocal<FisherExactTest> fet = ThreadLocal.withInitial(() -> new FisherExactTest(size));
+
+    //the maps are not thread-safe : the genotypes of each gene are extracted beforehand
+    final int nbGenes = genes.size();
+    final AtomicReferenceArray<HashMap<String, byte[]>> cases = new AtomicReferenceArray<>(nbGenes);
+    final AtomicReferenceArray<HashMap<String, byte[]>> controls = new AtomicReferenceArray<>(nbGenes);
+    for (int i = 0; i < nbGenes; i++) {
+      cases.set(i, clientData.remove(genes.get(i)));
+      controls.set(i, rppData.remove(genes.get(i)));
+    }
+
+    ArrayList<Callable<GeneGenotypes>> tasks = new ArrayList<>();
+    for (int i = 0; i < nbGenes; i++) {
+      final int g = i;
+      //the genotypes are not needed anymore, once merged
+      tasks.add(() -> merge(genes.get(g), cases.getAndSet(g, null), controls.getAndSet(g, null), missingCases, missingControl, frqThreshold, fet.get(), pooledFrequencyFiltered, failedFisher));
+    }
+
+    ArrayList<GeneGenotypes> genotypes = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, nbThreads));
+    try {
+      for (Future<GeneGenotypes> merged : pool.invokeAll(tasks))
+        if (!merged.get().isEmpty())
+          genotypes.add(merged.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    return genotypes;
+  }
+
+  /**
+   * Is the pooled alternate allele frequency above the threshold ?
+   *
+   * @param genotypes the genotypes of the variant (-1 for missing)
+   * @param frq       the threshold frequency
+   * @return true if the variant must be filtered out
+   */
+  private static boolean filterPooledFrequency(byte[] genotypes, double frq){
     double an = 0;
     double ac = 0;
 
-    for(int i = 1 ; i < f.length; i++){
-      String g = f[i];
-      int v = new Integer(g);
+    for(byte v : genotypes){
       if(v != -1){
         an += 2;
         ac += v;
@@ -461,38 +499,20 @@ public class ThirdPartyServer extends CommandLineInstance {
     return ac/an > frq;
   }
 
-  /**
-   * Remove lines where the frequency is KO
-   * @param lines the lines to prune
-   * @param frq the theshold frequency
-   * @return the number of lines filtered out
-   */
-  private int removeAlleleFrequency(ArrayList<String> lines, double frq){
-    ArrayList<Integer> filtered = new ArrayList<>();
-    for(int i = 0 ; i < lines.size(); i++)
-      if(filterPooledFrequency(lines.get(i), frq))
-        filtered.add(i);
-
-    //remove lines, by INDEX, in desc order
-    for(int i = filtered.size() - 1 ; i >= 0; i--) {
-      lines.remove((int)filtered.get(i));//here ignore warning on String != Integer, remove has 2 signature
-    }
-    return filtered.size();
-  }
-
   @SuppressWarnings("ResultOfMethodCallIgnored")
-  private void export(HashMap<String, ArrayList<String>> genotypes, HashMap<String, ArrayList<String>> variants) throws IOException{
+  private void export(ArrayList<GeneGenotypes> genotypes) throws IOException{
     String debugDir = this.sessionDir + File.separator + "debug";
     new File(debugDir).mkdirs();
     
-    for(String gene : genotypes.keySet()){
-      PrintWriter out = new PrintWriter(new FileWriter(debugDir + File.separator + "debug."+gene+".geno"));
-      ArrayList<String> vs = variants.get(gene);
-      ArrayList<String> gs = genotypes.get(gene);
+    for(GeneGenotypes gene : genotypes){
+      PrintWriter out = new PrintWriter(new FileWriter(debugDir + File.separator + "debug."+gene.getGene()+".geno"));
+      ArrayList<String> vs = gene.getVariants();
+      ArrayList<byte[]> gs = gene.getGenotypes();
       for(int i = 0 ; i < vs.size(); i++){
-        String v = vs.get(i);
-        String g = gs.get(i);
-        out.println(v + "\t" + g);
+        StringBuilder sb = new StringBuilder(vs.get(i));
+        for(byte g : gs.get(i))
+          sb.append("\t").append(g);
+        out.println(sb);
       }
       out.close();
     }
@@ -507,136 +527,182 @@ public class ThirdPartyServer extends CommandLineInstance {
   }
 
   /**
-   * Merges the lines for a given genomic region (gene).
+   * Merges the variants for a given genomic region (gene), and filters them (call rate and pooled frequency).
    * The first columns are relative to the affected individuals, the last ones to the unaffected
    *
-   * @param vAffected         genotypes for the affected individuals
-   * @param vUnaffected       genotypes for the unaffected individuals
-   * @param missingAffected   String of nbAffected "-1" columns, if a variants is not present in the affected dataset
-   * @param missingUnaffected String of nbUnaffected "-1" columns, if a variants is not present in the unaffected dataset
-   * @return the merged lines
+   * @param gene                    the name of the genomic region
+   * @param vAffected               genotypes for the affected individuals, for each variant
+   * @param vUnaffected             genotypes for the unaffected individuals, for each variant
+   * @param missingAffected         nbAffected missing genotypes, if a variants is not present in the affected dataset
+   * @param missingUnaffected       nbUnaffected missing genotypes, if a variants is not present in the unaffected dataset
+   * @param frqThreshold            the threshold for the pooled frequency
+   * @param fet                     the FisherExactTest of the current thread
+   * @param pooledFrequencyFiltered counter of variants filtered out by pooled frequency
+   * @param failedFisher            counter of variants filtered out by the call rate Fisher test
+   * @return the merged genotypes
    */
-  private ArrayList<String> merge(HashMap<String, String> vAffected, HashMap<String, String> vUnaffected, String missingAffected, String missingUnaffected) {
-    ArrayList<String> merge = new ArrayList<>();
-    FisherExactTest fet = null;
+  private static GeneGenotypes merge(String gene, HashMap<String, byte[]> vAffected, HashMap<String, byte[]> vUnaffected, byte[] missingAffected, byte[] missingUnaffected, double frqThreshold,
+                                     FisherExactTest fet, AtomicInteger pooledFrequencyFiltered, AtomicInteger failedFisher) {
+    GeneGenotypes merge = new GeneGenotypes(gene);
 
     for (String variant : vAffected.keySet()) { //process all client variants
-      String lCase = vAffected.get(variant);
-      String lControl = vUnaffected.get(variant);
-      if (lControl == null) //add if only on the client's side
-        merge.add(variant+ "\t" + lCase + "\t" + missingUnaffected);
+      byte[] gCase = vAffected.get(variant);
+      byte[] gControl = vUnaffected.get(variant);
+      if (gControl == null) //add if only on the client's side
+        add(merge, variant, gCase, missingUnaffected, frqThreshold, pooledFrequencyFiltered);
       else {  // if variant is common to both groups, perform a fisher test
-        if(fet == null)
-          fet = new FisherExactTest(lCase.split("\t").length + lControl.split("\t").length);
-        if(checkCallrate(fet, lCase, lControl))
-          merge.add(variant+ "\t" + lCase + "\t" + lControl);
+        if(checkCallrate(fet, gCase, gControl))
+          add(merge, variant, gCase, gControl, frqThreshold, pooledFrequencyFiltered);
         else
-          failedFisher++;
+          failedFisher.incrementAndGet();
       }
     }
 
     for (String variant : vUnaffected.keySet()) //process rpp variants that aren't common to client
       if (vAffected.get(variant) == null) 
-        merge.add(variant+ "\t" + missingAffected + "\t" + vUnaffected.get(variant));
+        add(merge, variant, missingAffected, vUnaffected.get(variant), frqThreshold, pooledFrequencyFiltered);
     
     return merge;
   }
 
-  private static boolean checkCallrate(FisherExactTest fet, String lCase, String lControl){
+  /**
+   * Adds a variant to the merged genotypes, unless its pooled frequency is above the threshold
+   *
+   * @param merge                   the merged genotypes
+   * @param variant                 the name of the variant
+   * @param gCase                   genotypes of the affected individuals
+   * @param gControl                genotypes of the unaffected individuals
+   * @param frqThreshold            the threshold for the pooled frequency
+   * @param pooledFrequencyFiltered counter of variants filtered out by pooled frequency
+   */
+  private static void add(GeneGenotypes merge, String variant, byte[] gCase, byte[] gControl, double frqThreshold, AtomicInteger pooledFrequencyFiltered) {
+    byte[] genotypes = new byte[gCase.length + gControl.length];
+    System.arraycopy(gCase, 0, genotypes, 0, gCase.length);
+    System.arraycopy(gControl, 0, genotypes, gCase.length, gControl.length);
+    if (filterPooledFrequency(genotypes, frqThreshold))
+      pooledFrequencyFiltered.incrementAndGet();
+    else
+      merge.add(variant, genotypes);
+  }
+
+  private static boolean checkCallrate(FisherExactTest fet, byte[] gCase, byte[] gControl){
     int missingCase = 0;
     int missingControl = 0;
-    String[] fCase = lCase.split("\t");
-    String[] fControl = lControl.split("\t");
-    for(String s : fCase)
-      if(new Integer(s) == -1)      
+    for(byte g : gCase)
+      if(g == -1)
         missingCase++;
 
-    for(String s : fControl)
-      if(new Integer(s) == -1)      
+    for(byte g : gControl)
+      if(g == -1)
         missingControl++;
     
-    double pvalue = fet.twoTailed(fCase.length - missingCase, missingCase, fControl.length - missingControl, missingControl);
+    double pvalue = fet.twoTailed(gCase.length - missingCase, missingCase, gControl.length - missingControl, missingControl);
     return pvalue > 0.001;
   }
 
   /**
-   * A String nb x "-1" columns, representation missing data for nb individuals
+   * nb missing genotypes (-1), representation missing data for nb individuals
    *
    * @param nb number of missing individuals
-   * @return the line for nb missing individual
+   * @return the genotypes for nb missing individual
    */
-  private static String missingLine(int nb) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < nb; i++)
-      sb.append("\t-1");
-    return sb.substring(1);
+  private static byte[] missingGenotypes(int nb) {
+    byte[] missing = new byte[nb];
+    Arrays.fill(missing, (byte)-1);
+    return missing;
   }
 
   /**
-   * Builds a Map associating a genomic region (gene) as Key to as line of genotypes as value
+   * Parses a line from a Genotype File (variant, gene, genotypes) and adds its genotypes to the map
    *
-   * @param lines lines from a Genotype File
-   * @return association map
-   */
-  private static HashMap<String, String> extractVariantLines(ArrayList<String> lines) {
-    HashMap<String, String> map = new HashMap<>();
-    for (String line : lines) {
-      String[] f = line.split("\t");
-      StringBuilder sb = new StringBuilder();
-      for (int j = IDX_GENOTYPE; j < f.length; j++)
-        sb.append("\t").append(f[j]);
-      map.put(f[IDX_VARIANT], sb.substring(1));
+   * @param line     the line to parse
+   * @param excluded Variants Excluded by the Client and/or the Server in hashed values
+   * @param map      A map of genotypes for each variant, for each genomic region (gene)
+   * @return true if the line was added, false if the variant is excluded
+   */
+  private static boolean parseLine(String line, VariantExclusionSet excluded, HashMap<String, HashMap<String, byte[]>> map) {
+    //IDX_VARIANT, IDX_GENE, IDX_GENOTYPE...
+    int endVariant = line.indexOf('\t');
+    String variant = line.substring(0, endVariant);
+    if(excluded.contains(variant))
+      return false;
+    int endGene = line.indexOf('\t', endVariant + 1);
+    String gene = line.substring(endVariant + 1, endGene);
+    HashMap<String, byte[]> variants = map.get(gene);
+    if(variants == null){
+      variants = new HashMap<>();
+      map.put(gene, variants);
     }
-    return map;
+    variants.put(variant, parseGenotypes(line, endGene + 1));
+    return true;
+  }
+
+  /**
+   * Parses tab separated genotypes (-1, 0, 1 or 2)
+   *
+   * @param line  the line to parse
+   * @param start the position of the first genotype in the line
+   * @return the genotypes
+   */
+  private static byte[] parseGenotypes(String line, int start) {
+    int nb = 1;
+    for (int i = start; i < line.length(); i++)
+      if (line.charAt(i) == '\t')
+        nb++;
+    byte[] genotypes = new byte[nb];
+    int g = 0;
+    int value = 0;
+    boolean negative = false;
+    for (int i = start; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\t') {
+        genotypes[g++] = (byte) (negative ? -value : value);
+        value = 0;
+        negative = false;
+      } else if (c == '-')
+        negative = true;
+      else
+        value = 10 * value + (c - '0');
+    }
+    genotypes[g] = (byte) (negative ? -value : value);
+    return genotypes;
   }
 
   /**
    * Reads the data from the RPP
    * @param  excluded Variants Excluded by the Client and/or the Server in hashed values
-   * @return A map of genotypes for each genomic region (gene)
+   * @param  map A map of genotypes for each variant, for each genomic region (gene), to fill
+   * @return the number of variants read
    * @throws IOException If an I/O error occurs while reading from the file of excluded variants
    */
-  private HashMap<String, ArrayList<String>> readRPPData(VariantExclusionSet excluded) throws IOException {
-    HashMap<String, ArrayList<String>> map = new HashMap<>();
+  private int readRPPData(VariantExclusionSet excluded, HashMap<String, HashMap<String, byte[]>> map) throws IOException {
+    int nb = 0;
     String line;
     UniversalReader in = new UniversalReader(this.rppFilename);
-    while ((line = in.readLine()) != null) {
-      String[] f = line.split("\t");
-      if(!excluded.contains(f[IDX_VARIANT])){
-        ArrayList<String> lines = map.containsKey(f[IDX_GENE])
-                ? map.get(f[IDX_GENE])
-                : new ArrayList<>();
-
-        lines.add(line);
-        map.put(f[IDX_GENE], lines);
-      }
-    }
+    while ((line = in.readLine()) != null)
+      if(parseLine(line, excluded, map))
+        nb++;
     in.close();
-    return map;
+    return nb;
   }
 
   /**
    * Reads the data from the Client
-   * The input file the decrypted using the AES key
+   * The input file is decrypted on the fly using the AES key
    * @param  excluded Variants Excluded by the Client and/or the Server in hashed values
-   * @return A map of genotypes for each genomic region (gene)
+   * @param  map A map of genotypes for each variant, for each genomic region (gene), to fill
+   * @return the number of variants read
    * @throws IOException If an I/O error occurs while reading from the client data file
    */
-  private HashMap<String, ArrayList<String>> readClientData(VariantExclusionSet excluded) throws IOException {
-    UniversalReader in = new UniversalReader(this.clientFilename);
-
-    HashMap<String, ArrayList<String>> map = new HashMap<>();
-    for (String line : Crypto.decryptAES(aesKey, in.readLine()).split("\n")) {
-      String[] f = line.split("\t");
-      if(!excluded.contains(f[IDX_VARIANT])){
-        ArrayList<String> lines = map.containsKey(f[IDX_GENE])
-                ? map.get(f[IDX_GENE])
-                : new ArrayList<>();
-        lines.add(line);
-        map.put(f[IDX_GENE], lines);
-      }
-    }
-    return map;
+  private int readClientData(VariantExclusionSet excluded, HashMap<String, HashMap<String, byte[]>> map) throws IOException {
+    int nb = 0;
+    String line;
+    BufferedReader in = Crypto.decryptAES(aesKey, UniversalReader.getInputStream(this.clientFilename));
+    while ((line = in.readLine()) != null)
+      if(parseLine(line, excluded, map))
+        nb++;
+    in.close();
+    return nb;
   }
 
   /**
@@ -646,7 +712,7 @@ public class ThirdPartyServer extends CommandLineInstance {
    * @param rppData    Another Map where the key is a gene name
    * @return The key that are present in both maps
    */
-  private static ArrayList<String> getCommonGenes(HashMap<String, ArrayList<String>> clientData, HashMap<String, ArrayList<String>> rppData) {
+  private static ArrayList<String> getCommonGenes(HashMap<String, HashMap<String, byte[]>> clientData, HashMap<String, HashMap<String, byte[]>> rppData) {
     ArrayList<String> ret = new ArrayList<>();
     for (String gene : clientData.keySet())
       if (rppData.containsKey(gene))